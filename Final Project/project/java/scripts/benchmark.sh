@@ -0,0 +1,14 @@
+#!/bin/bash
+# Benchmarks the Retail operations; pass e.g. -Dbench.scales=1,10,100 to
+# generate and load each data set size first
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -d "$DIR"/../classes "$DIR"/../src/*.java
+
+#run the benchmark
+#Use your database name, port number and login
+java "$@" -cp "$DIR"/../classes:"$DIR"/../lib/pg73jdbc3.jar RetailBenchmark $USER"_DB" $PGPORT $USER
@@ -0,0 +1,13 @@
+#!/bin/bash
+# Bulk loads a data directory (default: the shipped data) into the database
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -d "$DIR"/../classes "$DIR"/../src/*.java
+
+#run the loader
+#Use your database name, port number and login
+java -cp "$DIR"/../classes:"$DIR"/../lib/pg73jdbc3.jar BulkLoader $USER"_DB" $PGPORT $USER "${1:-$DIR/../../data}"
@@ -0,0 +1,13 @@
+#!/bin/bash
+# Posts pending stock reservations and verifies the inventory ledger against the stock
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -d "$DIR"/../classes "$DIR"/../src/*.java
+
+#run the reconciliation
+#Use your database name, port number and login
+java -cp "$DIR"/../classes:"$DIR"/../lib/pg73jdbc3.jar InventoryReconciler $USER"_DB" $PGPORT $USER
@@ -0,0 +1,423 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class loads the CSV files of a data directory (data/ or the output
+ * of DataGenerator) into the Retail tables.  Foreign keys, secondary
+ * indexes and user triggers are removed for the load and restored after
+ * it, every table is loaded at the same time on its own pooled connection,
+ * and the serial sequences are moved past the loaded keys.
+ *
+ * Rows are streamed with COPY FROM STDIN when the JDBC driver on the
+ * classpath has a CopyManager; the pg73jdbc3 driver in lib/ has none, so
+ * batched INSERTs are used instead.
+ *
+ */
+public class BulkLoader {
+
+   // table, CSV file and serial column (or null), in the order they are reported
+   private static final String[][] TABLES = {
+      { "Users", "users.csv", "userID" },
+      { "Warehouse", "warehouse.csv", null },
+      { "Store", "stores.csv", null },
+      { "Product", "products.csv", null },
+      { "Orders", "orders.csv", "orderNumber" },
+      { "ProductUpdates", "productUpdates.csv", "updateNumber" },
+      { "ProductSupplyRequests", "productSupplyRequests.csv", "requestNumber" }
+   };
+
+   // rows sent per executeBatch when COPY is not available
+   private static final int BATCH_SIZE = Integer.getInteger("load.batchSize", 5000);
+
+   private final Retail esql;
+   private final File dir;
+   private final int threads;
+
+   // pg_class names of the loaded tables, for the catalog queries
+   private final String tableList;
+
+   /**
+    * Creates a loader
+    *
+    * @param esql the database to load into
+    * @param dir the directory holding the CSV files
+    * @param threads the number of tables loaded at the same time
+    */
+   public BulkLoader(Retail esql, File dir, int threads) {
+      this.esql = esql;
+      this.dir = dir;
+      this.threads = Math.max(1, threads);
+      StringBuilder sb = new StringBuilder();
+      for (String[] table : TABLES)
+         sb.append(sb.length() == 0 ? "" : ", ").append('\'').append(table[0].toLowerCase()).append('\'');
+      this.tableList = sb.toString();
+   }//end BulkLoader
+
+   /**
+    * Loads every CSV file that exists in the directory.
+    *
+    * @param truncate empty the tables first
+    * @throws Exception when a file cannot be read, or a load or restore step fails
+    */
+   public void load(boolean truncate) throws Exception {
+      long start = System.nanoTime();
+      List<String[]> foreignKeys = esql.executeQueryForList (
+         "SELECT c.conrelid::regclass::text, quote_ident(c.conname), pg_get_constraintdef(c.oid) " +
+         "FROM pg_constraint c WHERE c.contype = 'f' AND c.conrelid IN " +
+         "(SELECT oid FROM pg_class WHERE relname IN (" + tableList + ") AND relkind = 'r')", TRIPLE);
+      List<String[]> indexes = esql.executeQueryForList (
+         "SELECT i.indexrelid::regclass::text, pg_get_indexdef(i.indexrelid), '' FROM pg_index i " +
+         "WHERE i.indrelid IN (SELECT oid FROM pg_class WHERE relname IN (" + tableList + ") AND relkind = 'r') " +
+         "AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid)", TRIPLE);
+
+      // nothing is checked or indexed row by row while loading
+      for (String[] fk : foreignKeys)
+         esql.executeUpdate ("ALTER TABLE " + fk[0] + " DROP CONSTRAINT " + fk[1]);
+      for (String[] index : indexes)
+         esql.executeUpdate ("DROP INDEX " + index[0]);
+      for (String[] table : TABLES)
+         esql.executeUpdate ("ALTER TABLE " + table[0] + " DISABLE TRIGGER USER");
+      if (truncate) {
+         StringBuilder sb = new StringBuilder("TRUNCATE ");
+         for (int i = 0; i < TABLES.length; ++i)
+            sb.append(i == 0 ? "" : ", ").append(TABLES[i][0]);
+         esql.executeUpdate (sb.append(" CASCADE").toString());
+      }
+      phase("Dropped " + foreignKeys.size() + " foreign keys and " + indexes.size() + " indexes", start);
+
+      Exception failure = null;
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+         start = System.nanoTime();
+         List<Future<Long>> results = new ArrayList<Future<Long>>();
+         for (final String[] table : TABLES) {
+            final File file = new File(dir, table[1]);
+            if (!file.exists()) continue;
+            results.add(pool.submit(new Callable<Long>() {
+               public Long call() throws Exception {
+                  long t = System.nanoTime();
+                  long rows = loadTable(table[0], file);
+                  report(table[0], rows, t);
+                  return rows;
+               }
+            }));
+         }
+         long rows = 0;
+         for (Future<Long> result : results)
+            rows += get(result);
+         report("total", rows, start);
+      } catch (Exception e) {
+         failure = e;
+      } finally {
+         // put back everything that was removed, even after a failed load
+         failure = restore(pool, indexes, foreignKeys, failure);
+      }//end try
+      if (failure != null) throw failure;
+
+      start = System.nanoTime();
+      resetSequences();
+      esql.rebuildPopularity ();
+      esql.rebuildInventory ();
+      // the loaded Users replace what the cache was read from
+      Retail.USER_PROFILES.invalidateAll ();
+      for (String[] table : TABLES)
+         esql.executeUpdate ("ANALYZE " + table[0]);
+      phase("Reset sequences, rebuilt popularity and inventory, analyzed", start);
+   }//end load
+
+   /*
+    * Rebuilds the indexes, adds back the foreign keys and enables the
+    * triggers that load() removed.  Every step is tried; the first failure,
+    * of the load or of a step, is returned with the later ones suppressed
+    * in it, so a failed restore does not hide why the load failed.
+    */
+   private Exception restore(ExecutorService pool, List<String[]> indexes, List<String[]> foreignKeys,
+                             Exception failure) {
+      try {
+         long start = System.nanoTime();
+         List<Future<Long>> results = new ArrayList<Future<Long>>();
+         for (final String[] index : indexes)
+            results.add(pool.submit(new Callable<Long>() {
+               public Long call() throws SQLException {
+                  esql.executeUpdate (index[1]);
+                  return 1L;
+               }
+            }));
+         for (Future<Long> result : results)
+            get(result);
+         phase("Built " + indexes.size() + " indexes", start);
+
+         start = System.nanoTime();
+         // adding as NOT VALID is instant; the validations then scan in parallel
+         for (String[] fk : foreignKeys)
+            esql.executeUpdate ("ALTER TABLE " + fk[0] + " ADD CONSTRAINT " + fk[1] + " " + fk[2] + " NOT VALID");
+         results.clear();
+         for (final String[] fk : foreignKeys)
+            results.add(pool.submit(new Callable<Long>() {
+               public Long call() throws SQLException {
+                  esql.executeUpdate ("ALTER TABLE " + fk[0] + " VALIDATE CONSTRAINT " + fk[1]);
+                  return 1L;
+               }
+            }));
+         for (Future<Long> result : results)
+            get(result);
+         phase("Checked " + foreignKeys.size() + " foreign keys", start);
+      } catch (Exception e) {
+         failure = firstOf(failure, e);
+      } finally {
+         pool.shutdown();
+      }
+      for (String[] table : TABLES) {
+         try {
+            esql.executeUpdate ("ALTER TABLE " + table[0] + " ENABLE TRIGGER USER");
+         } catch (SQLException e) {
+            failure = firstOf(failure, e);
+         }
+      }
+      return failure;
+   }//end restore
+
+   private static Exception firstOf(Exception first, Exception next) {
+      if (first == null) return next;
+      first.addSuppressed(next);
+      return first;
+   }
+
+   /**
+    * Moves every serial sequence past the largest key loaded, so that new
+    * rows do not collide with loaded ones.
+    */
+   public void resetSequences() throws SQLException {
+      for (String[] table : TABLES) {
+         if (table[2] == null) continue;
+         esql.executeQueryForObject (
+            "SELECT setval(pg_get_serial_sequence(?, ?), COALESCE(MAX(" + table[2] + "), 0) + 1, false) FROM " + table[0],
+            RowMapper.STRING, table[0].toLowerCase(), table[2].toLowerCase());
+      }
+   }//end resetSequences
+
+   /*
+    * Loads one CSV file on a connection of its own, in one transaction
+    */
+   private long loadTable(String table, File file) throws Exception {
+      ConnectionPool.PooledConnection conn = esql.getPool ().borrow ();
+      try {
+         conn.connection.setAutoCommit(false);
+         BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 1 << 16);
+         try {
+            String header = in.readLine();
+            if (header == null) return 0;
+            long rows = copy(conn.connection, "COPY " + table + " (" + header + ") FROM STDIN WITH CSV", in);
+            if (rows < 0)
+               rows = insert(conn, table, parseCsv(header), in);
+            conn.connection.commit();
+            return rows;
+         } finally {
+            in.close();
+         }
+      } catch (Exception e) {
+         // the pool rolls back the failed transaction
+         throw new Exception(table + ": " + e.getMessage(), e);
+      } finally {
+         esql.getPool ().release (conn);
+      }
+   }//end loadTable
+
+   /*
+    * Streams the rest of the file through the driver's CopyManager.  The
+    * class is looked up by reflection so the loader still compiles and runs
+    * with drivers that predate it.
+    *
+    * @return the number of rows copied, or -1 if the driver cannot COPY
+    */
+   private static long copy(Connection connection, String sql, Reader in) throws Exception {
+      Object manager;
+      Method copyIn;
+      try {
+         Class<?> baseConnection = Class.forName("org.postgresql.core.BaseConnection");
+         if (!baseConnection.isInstance(connection)) return -1;
+         Class<?> copyManager = Class.forName("org.postgresql.copy.CopyManager");
+         Constructor<?> constructor = copyManager.getConstructor(baseConnection);
+         manager = constructor.newInstance(connection);
+         copyIn = copyManager.getMethod("copyIn", String.class, Reader.class);
+      } catch (ClassNotFoundException e) {
+         return -1;
+      } catch (NoSuchMethodException e) {
+         return -1;
+      }
+      try {
+         return ((Number) copyIn.invoke(manager, sql, in)).longValue();
+      } catch (InvocationTargetException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof Exception) throw (Exception) cause;
+         throw e;
+      }
+   }//end copy
+
+   /*
+    * Sends the rest of the file as batched INSERTs.  Every value is bound as
+    * text and cast to its column type, the way COPY parses it.
+    */
+   private long insert(ConnectionPool.PooledConnection conn, String table, List<String> columns, BufferedReader in)
+         throws SQLException, IOException {
+      Map<String, String> types = new HashMap<String, String>();
+      PreparedStatement typeQuery = conn.statements.prepare (
+         "SELECT a.attname, format_type(a.atttypid, a.atttypmod) FROM pg_attribute a " +
+         "WHERE a.attrelid = (SELECT oid FROM pg_class WHERE relname = ? AND relkind = 'r') " +
+         "AND a.attnum > 0 AND NOT a.attisdropped");
+      typeQuery.setString(1, table.toLowerCase());
+      ResultSet rs = typeQuery.executeQuery();
+      try {
+         while (rs.next())
+            types.put(rs.getString(1), rs.getString(2));
+      } finally {
+         rs.close();
+      }
+
+      StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+      StringBuilder values = new StringBuilder();
+      for (int i = 0; i < columns.size(); ++i) {
+         String type = types.get(columns.get(i).toLowerCase());
+         if (type == null) throw new SQLException("No column " + columns.get(i) + " in " + table);
+         sql.append(i == 0 ? "" : ", ").append(columns.get(i));
+         values.append(i == 0 ? "" : ", ").append("CAST(? AS ").append(type).append(')');
+      }
+      PreparedStatement stmt = conn.statements.prepare (sql.append(") VALUES (").append(values).append(')').toString());
+
+      long rows = 0;
+      int pending = 0;
+      String line;
+      while ((line = in.readLine()) != null) {
+         if (line.length() == 0) continue;
+         List<String> fields = parseCsv(line);
+         for (int i = 0; i < columns.size(); ++i)
+            stmt.setString(i + 1, i < fields.size() ? fields.get(i) : null);
+         stmt.addBatch();
+         ++rows;
+         if (++pending == BATCH_SIZE) {
+            stmt.executeBatch();
+            pending = 0;
+         }
+      }//end while
+      if (pending > 0) stmt.executeBatch();
+      return rows;
+   }//end insert
+
+   /*
+    * Splits one CSV line the way COPY ... CSV does: fields may be quoted
+    * with doubled quotes inside, and an empty unquoted field is NULL.
+    */
+   static List<String> parseCsv(String line) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false, wasQuoted = false;
+      for (int i = 0; i < line.length(); ++i) {
+         char c = line.charAt(i);
+         if (quoted) {
+            if (c != '"') field.append(c);
+            else if (i + 1 < line.length() && line.charAt(i + 1) == '"') field.append(line.charAt(++i));
+            else quoted = false;
+         } else if (c == '"') {
+            quoted = wasQuoted = true;
+         } else if (c == ',') {
+            fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+            field.setLength(0);
+            wasQuoted = false;
+         } else if (c != '\r') {
+            field.append(c);
+         }
+      }//end for
+      fields.add(field.length() == 0 && !wasQuoted ? null : field.toString());
+      return fields;
+   }//end parseCsv
+
+   // maps three string columns
+   private static final RowMapper<String[]> TRIPLE = new RowMapper<String[]>() {
+      public String[] map(ResultSet rs) throws SQLException {
+         return new String[] { rs.getString(1), rs.getString(2), rs.getString(3) };
+      }
+   };
+
+   private static <T> T get(Future<T> result) throws Exception {
+      try {
+         return result.get();
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof Exception) throw (Exception) cause;
+         throw e;
+      }
+   }
+
+   private static synchronized void report(String table, long rows, long startNanos) {
+      double seconds = (System.nanoTime() - startNanos) / 1e9;
+      System.out.println(String.format("%-22s %,14d rows %8.1f s %,12.0f rows/sec",
+                                       table, rows, seconds, seconds > 0 ? rows / seconds : 0));
+   }
+
+   private static synchronized void phase(String what, long startNanos) {
+      System.out.println(String.format("%s in %.1f s", what, (System.nanoTime() - startNanos) / 1e9));
+   }
+
+   public static void main (String[] args) {
+      if (args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] [-Dload.truncate=true] [-Dload.threads=<n>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> <data dir>");
+         return;
+      }//end if
+
+      int threads = Integer.getInteger("load.threads", TABLES.length);
+      // one connection per table, held for the whole load
+      int poolSize = Integer.getInteger("retail.pool.maxSize", threads + 1);
+
+      Retail esql = null;
+      try {
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         // no background jobs: they would run against tables with triggers and foreign keys off
+         esql = new Retail (args[0], args[1], args[2], "", poolSize, false);
+         new BulkLoader(esql, new File(args[3]), threads).load(Boolean.getBoolean("load.truncate"));
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+         for (Throwable suppressed : e.getSuppressed ())
+            System.err.println ("  and then: " + suppressed.getMessage ());
+      } finally {
+         if (esql != null) esql.cleanup ();
+      }
+   }//end main
+}//end BulkLoader
@@ -0,0 +1,437 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class is a small bounded pool of physical PostgreSQL connections.
+ * Idle connections are validated when borrowed and closed after sitting
+ * idle for too long; borrowers wait at most maxWaitMillis for a free
+ * connection.  When a leak threshold is set, for debugging, connections held
+ * longer than it are reported together with the code that borrowed them;
+ * leak detection is off by default, since it records the caller of every
+ * borrow.
+ *
+ */
+public class ConnectionPool {
+
+   /**
+    * A physical connection handed out by the pool, together with its
+    * prepared statement cache.
+    */
+   public static class PooledConnection {
+      public final Connection connection;
+      public final StatementCache statements;
+      final long createdAt;
+      long lastUsedAt;
+      long borrowedAt;
+      Throwable borrowSite;
+      boolean leakReported;
+      int isolation;
+
+      PooledConnection(Connection connection, int statementCacheSize, int isolation) {
+         this.connection = connection;
+         this.statements = new StatementCache(connection, statementCacheSize);
+         this.createdAt = System.currentTimeMillis();
+         this.lastUsedAt = this.createdAt;
+         this.isolation = isolation;
+      }
+
+      /**
+       * Sets the isolation level of the connection, skipping the call when
+       * it is already at that level.  Must be called outside a transaction.
+       */
+      public void setIsolation(int level) throws SQLException {
+         if (level == isolation) return;
+         connection.setTransactionIsolation(level);
+         isolation = level;
+      }
+   }//end PooledConnection
+
+   // connection settings
+   private final String url;
+   private final String user;
+   private final String passwd;
+   private final int statementCacheSize;
+   private final int isolation;
+
+   // pool settings
+   private final int maxSize;
+   private final int minIdle;
+   private final long maxWaitMillis;
+   private final long idleTimeoutMillis;
+   private final long leakThresholdMillis;
+   private final long validateAfterMillis;
+
+   // idle connections, most recently returned first
+   private final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+
+   // connections currently handed out
+   private final Set<PooledConnection> active = new HashSet<PooledConnection>();
+
+   // connections being opened right now, counted against maxSize
+   private int opening = 0;
+   private boolean closed = false;
+
+   // metrics
+   private long borrows = 0;
+   private long waits = 0;
+   private long totalWaitNanos = 0;
+   private long maxWaitNanos = 0;
+   private long timeouts = 0;
+   private long created = 0;
+   private long destroyed = 0;
+   private long leaks = 0;
+
+   // statement cache totals of the connections closed so far
+   private long closedStatementHits = 0;
+   private long closedStatementMisses = 0;
+   private long closedStatementEvictions = 0;
+
+   private final Timer housekeeper;
+
+   /**
+    * Creates a new pool and opens minIdle connections up front, so that a
+    * bad URL or password is reported right away.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxSize the maximum number of open connections
+    * @param minIdle the number of idle connections kept open
+    * @param maxWaitMillis how long borrow() waits for a free connection
+    * @param idleTimeoutMillis how long a connection may sit idle before it is closed
+    * @param leakThresholdMillis how long a connection may be held before it is reported; 0 disables
+    * @param validateAfterMillis idle time after which a connection is checked before reuse
+    * @param statementCacheSize prepared statements cached per connection
+    * @param isolation the java.sql.Connection isolation level set on every connection
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public ConnectionPool(String url, String user, String passwd, int maxSize, int minIdle,
+                         long maxWaitMillis, long idleTimeoutMillis, long leakThresholdMillis,
+                         long validateAfterMillis, int statementCacheSize, int isolation) throws SQLException {
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.maxSize = Math.max(1, maxSize);
+      this.minIdle = Math.max(0, Math.min(minIdle, this.maxSize));
+      this.maxWaitMillis = maxWaitMillis;
+      this.idleTimeoutMillis = idleTimeoutMillis;
+      this.leakThresholdMillis = leakThresholdMillis;
+      this.validateAfterMillis = validateAfterMillis;
+      this.statementCacheSize = statementCacheSize;
+      this.isolation = isolation;
+
+      for (int i = 0; i < this.minIdle; ++i)
+         idle.push(open());
+
+      long period = Math.max(1000, Math.min(idleTimeoutMillis, 30000) / 2);
+      this.housekeeper = new Timer("ConnectionPool-housekeeper", true);
+      this.housekeeper.schedule(new TimerTask() {
+         public void run() { housekeep(); }
+      }, period, period);
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection, waiting up to maxWaitMillis for one to be
+    * returned when the pool is exhausted.
+    *
+    * @return a validated connection; hand it back with release()
+    * @throws java.sql.SQLException on timeout or when no connection can be opened
+    */
+   public PooledConnection borrow() throws SQLException {
+      long start = System.nanoTime();
+      long deadline = start + maxWaitMillis * 1000000L;
+      boolean waited = false;
+      while (true) {
+         PooledConnection pc = null;
+         boolean mustOpen = false;
+         synchronized (this) {
+            while (true) {
+               if (closed) throw new SQLException("Connection pool is closed");
+               if (!idle.isEmpty()) {
+                  pc = idle.pop();
+                  active.add(pc);
+                  break;
+               }
+               if (active.size() + opening < maxSize) {
+                  opening++;
+                  mustOpen = true;
+                  break;
+               }
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0) {
+                  timeouts++;
+                  throw new SQLException(String.format(
+                     "Timed out after %d ms waiting for a database connection (%d active)",
+                     maxWaitMillis, active.size()));
+               }
+               waited = true;
+               try {
+                  wait(Math.max(1, remaining / 1000000L));
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }
+            }//end while
+         }
+
+         if (mustOpen) {
+            try {
+               pc = open();
+            } finally {
+               synchronized (this) {
+                  opening--;
+                  if (pc != null) active.add(pc);
+                  else notifyAll();
+               }
+            }
+         } else if (!isValid(pc)) {
+            destroy(pc);
+            continue;
+         }
+
+         long now = System.currentTimeMillis();
+         long waitNanos = System.nanoTime() - start;
+         synchronized (this) {
+            borrows++;
+            if (waited) waits++;
+            totalWaitNanos += waitNanos;
+            if (waitNanos > maxWaitNanos) maxWaitNanos = waitNanos;
+         }
+         pc.borrowedAt = now;
+         pc.leakReported = false;
+         pc.borrowSite = leakThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+         return pc;
+      }//end while
+   }//end borrow
+
+   /**
+    * Hands a borrowed connection back to the pool.  A connection left in a
+    * transaction is rolled back first, and the pool's isolation level is
+    * restored.
+    *
+    * @param pc the connection returned by borrow()
+    */
+   public void release(PooledConnection pc) {
+      if (pc == null) return;
+      try {
+         if (!pc.connection.getAutoCommit()) {
+            pc.connection.rollback();
+            pc.connection.setAutoCommit(true);
+         }
+         pc.setIsolation(isolation);
+      } catch (SQLException e) {
+         destroy(pc);
+         return;
+      }
+      pc.lastUsedAt = System.currentTimeMillis();
+      pc.borrowSite = null;
+      boolean close;
+      synchronized (this) {
+         if (!active.remove(pc)) return;
+         close = closed;
+         if (!close) idle.push(pc);
+         notifyAll();
+      }
+      if (close) closeQuietly(pc);
+   }//end release
+
+   /**
+    * Closes a borrowed connection that is known to be broken instead of
+    * returning it to the pool.
+    *
+    * @param pc the connection returned by borrow()
+    */
+   public void destroy(PooledConnection pc) {
+      if (pc == null) return;
+      synchronized (this) {
+         active.remove(pc);
+         idle.remove(pc);
+         destroyed++;
+         notifyAll();
+      }
+      closeQuietly(pc);
+   }//end destroy
+
+   /**
+    * Closes every idle connection and stops handing out new ones.
+    * Connections still borrowed are closed as they are released.
+    */
+   public void close() {
+      List<PooledConnection> toClose;
+      synchronized (this) {
+         closed = true;
+         toClose = new ArrayList<PooledConnection>(idle);
+         idle.clear();
+         notifyAll();
+      }
+      housekeeper.cancel();
+      for (PooledConnection pc : toClose)
+         closeQuietly(pc);
+   }//end close
+
+   public synchronized int getActive() { return active.size(); }
+   public synchronized int getIdle() { return idle.size(); }
+   public synchronized int getMaxSize() { return maxSize; }
+   public synchronized long getBorrows() { return borrows; }
+   public synchronized long getWaits() { return waits; }
+   public synchronized long getTimeouts() { return timeouts; }
+   public synchronized long getCreated() { return created; }
+   public synchronized long getDestroyed() { return destroyed; }
+   public synchronized long getLeaks() { return leaks; }
+   public synchronized double getTotalWaitMillis() { return totalWaitNanos / 1e6; }
+   public synchronized double getMaxWaitMillis() { return maxWaitNanos / 1e6; }
+
+   public synchronized double getAverageWaitMillis() {
+      return borrows == 0 ? 0 : totalWaitNanos / 1e6 / borrows;
+   }
+
+   /**
+    * Adds up the prepared statement caches of every connection the pool
+    * has opened, including the ones closed since.
+    *
+    * @return the hits, misses and evictions, in that order
+    */
+   public synchronized long[] getStatementCacheTotals() {
+      long[] totals = { closedStatementHits, closedStatementMisses, closedStatementEvictions };
+      List<PooledConnection> open = new ArrayList<PooledConnection>(idle);
+      open.addAll(active);
+      for (PooledConnection pc : open) {
+         totals[0] += pc.statements.getHits();
+         totals[1] += pc.statements.getMisses();
+         totals[2] += pc.statements.getEvictions();
+      }
+      return totals;
+   }
+
+   public synchronized String toString() {
+      long[] statements = getStatementCacheTotals();
+      return String.format(
+         "active=%d idle=%d max=%d borrows=%d waits=%d avgWait=%.3fms maxWait=%.3fms timeouts=%d created=%d destroyed=%d leaks=%d " +
+         "statementHits=%d statementMisses=%d statementEvictions=%d",
+         active.size(), idle.size(), maxSize, borrows, waits, getAverageWaitMillis(),
+         maxWaitNanos / 1e6, timeouts, created, destroyed, leaks, statements[0], statements[1], statements[2]);
+   }
+
+   /*
+    * Opens a new physical connection
+    */
+   private PooledConnection open() throws SQLException {
+      Connection connection = DriverManager.getConnection(url, user, passwd);
+      try {
+         connection.setTransactionIsolation(isolation);
+      } catch (SQLException e) {
+         connection.close();
+         throw e;
+      }
+      synchronized (this) {
+         created++;
+      }
+      return new PooledConnection(connection, statementCacheSize, isolation);
+   }//end open
+
+   /*
+    * Checks an idle connection before it is handed out again.  Connections
+    * used recently are trusted; older ones are pinged with a trivial query.
+    */
+   private boolean isValid(PooledConnection pc) {
+      try {
+         if (pc.connection.isClosed()) return false;
+         if (System.currentTimeMillis() - pc.lastUsedAt < validateAfterMillis) return true;
+         Statement stmt = pc.connection.createStatement();
+         try {
+            stmt.execute("SELECT 1");
+         } finally {
+            stmt.close();
+         }
+         return true;
+      } catch (SQLException e) {
+         return false;
+      }
+   }//end isValid
+
+   /*
+    * Closes connections idle past the timeout (keeping minIdle of them) and
+    * reports connections borrowed for longer than the leak threshold.
+    */
+   private void housekeep() {
+      long now = System.currentTimeMillis();
+      List<PooledConnection> expired = new ArrayList<PooledConnection>();
+      List<PooledConnection> leaked = new ArrayList<PooledConnection>();
+      synchronized (this) {
+         if (closed) return;
+         // the deque is ordered most recently used first, so expire from the tail
+         Iterator<PooledConnection> it = idle.descendingIterator();
+         while (it.hasNext() && idle.size() > minIdle) {
+            PooledConnection pc = it.next();
+            if (now - pc.lastUsedAt < idleTimeoutMillis) break;
+            it.remove();
+            expired.add(pc);
+            destroyed++;
+         }
+         if (leakThresholdMillis > 0) {
+            for (PooledConnection pc : active) {
+               if (!pc.leakReported && now - pc.borrowedAt > leakThresholdMillis) {
+                  pc.leakReported = true;
+                  leaks++;
+                  leaked.add(pc);
+               }
+            }
+         }
+      }
+      for (PooledConnection pc : expired)
+         closeQuietly(pc);
+      for (PooledConnection pc : leaked)
+         System.err.println(String.format(
+            "Warning - connection held for more than %d ms; possible leak, borrowed by %s",
+            leakThresholdMillis, borrower(pc.borrowSite)));
+   }//end housekeep
+
+   // the first caller outside the pool and the Retail session in the borrow's stack
+   private static String borrower(Throwable site) {
+      if (site == null) return "unknown";
+      StackTraceElement[] frames = site.getStackTrace();
+      for (StackTraceElement frame : frames) {
+         String owner = frame.getClassName().split("\\$")[0];
+         if (!owner.equals(ConnectionPool.class.getName()) && !owner.equals(Retail.class.getName()))
+            return frame.toString();
+      }
+      return frames.length > 0 ? frames[frames.length - 1].toString() : "unknown";
+   }
+
+   private void closeQuietly(PooledConnection pc) {
+      synchronized (this) {
+         closedStatementHits += pc.statements.getHits();
+         closedStatementMisses += pc.statements.getMisses();
+         closedStatementEvictions += pc.statements.getEvictions();
+      }
+      pc.statements.close();
+      try {
+         pc.connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }
+}//end ConnectionPool
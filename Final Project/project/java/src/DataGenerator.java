@@ -0,0 +1,458 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * This class writes a synthetic copy of the data/ CSV files at any scale.
+ * Stores and customers are clustered around a number of towns, customers
+ * mostly shop in their own town, and both products and customers follow a
+ * Zipf distribution, so popularity reports and per-store queries see the
+ * skew of a real retailer.  Every generated row satisfies the foreign keys
+ * in create_tables.sql.
+ *
+ * Row counts default to the shipped data times the scale factor and can be
+ * overridden per table, e.g. -Dgen.orders=100000000.  The order, update and
+ * supply request files are streamed, so their size is limited only by disk.
+ *
+ */
+public class DataGenerator {
+
+   // the products of the shipped data; generated names follow them
+   private static final String[] PRODUCT_NAMES = {
+      "7up", "Pepsi", "Lemonade", "Brisk", "Orange Juice",
+      "Ice Cream", "Pudding", "Donuts", "Egg", "Hot and Sour Soup"
+   };
+
+   // coordinates are decimal(8,6) / decimal(9,6), the shipped data uses 0..100
+   private static final double MAX_COORDINATE = 99.99999;
+
+   private final File dir;
+   private final Random random;
+
+   // row counts
+   private final int users;
+   private final int stores;
+   private final int warehouses;
+   private final int productsPerStore;
+   private final int catalogSize;
+   private final long orders;
+   private final long updates;
+   private final long supplyRequests;
+
+   // skew and clustering
+   private final double productSkew;
+   private final double customerSkew;
+   private final double localShare;
+   private final double townRadius;
+   private final int days;
+
+   // town centers
+   private double[] townLat;
+   private double[] townLong;
+
+   // userID -> town, and the ids of the customers and managers
+   private int[] userTown;
+   private int[] customers;
+   private int[] managers;
+
+   // storeID - 1 -> manager, and the stores of every town
+   private int[] storeManager;
+   private int[][] townStores;
+
+   // (storeID - 1) * productsPerStore + rank -> catalog index, most popular rank first
+   private int[] storeProducts;
+
+   private final String[] catalog;
+
+   /**
+    * Creates a generator writing into dir
+    *
+    * @param dir the directory the CSV files are written to
+    * @param scale multiplier applied to the row counts of the shipped data
+    */
+   public DataGenerator(File dir, double scale) {
+      this.dir = dir;
+      this.random = new Random(Long.getLong("gen.seed", 166L));
+      this.users = Math.max(10, Integer.getInteger("gen.users", (int) Math.round(100 * scale)));
+      this.stores = Math.max(1, Integer.getInteger("gen.stores", (int) Math.round(20 * scale)));
+      this.warehouses = Math.max(1, Integer.getInteger("gen.warehouses", (int) Math.round(5 * scale)));
+      this.catalogSize = Math.max(PRODUCT_NAMES.length, Integer.getInteger("gen.catalogSize",
+         (int) Math.round(PRODUCT_NAMES.length * Math.max(1, Math.sqrt(scale)))));
+      this.productsPerStore = Math.min(catalogSize, Integer.getInteger("gen.productsPerStore", 10));
+      this.orders = Long.getLong("gen.orders", Math.round(500 * scale));
+      this.updates = Long.getLong("gen.updates", Math.round(50 * scale));
+      this.supplyRequests = Long.getLong("gen.supplyRequests", Math.round(10 * scale));
+      this.productSkew = Double.parseDouble(System.getProperty("gen.productSkew", "1.0"));
+      this.customerSkew = Double.parseDouble(System.getProperty("gen.customerSkew", "0.8"));
+      this.localShare = Double.parseDouble(System.getProperty("gen.localShare", "0.8"));
+      this.townRadius = Double.parseDouble(System.getProperty("gen.townRadius", "3.0"));
+      this.days = Integer.getInteger("gen.days", 365);
+
+      this.catalog = new String[catalogSize];
+      for (int i = 0; i < catalogSize; ++i)
+         catalog[i] = i < PRODUCT_NAMES.length ? PRODUCT_NAMES[i] : "Product " + (i + 1);
+   }//end DataGenerator
+
+   /**
+    * Writes every CSV file, printing the row count and rate of each.
+    *
+    * @throws java.io.IOException when a file cannot be written
+    */
+   public void generate() throws IOException {
+      dir.mkdirs();
+      int towns = Math.max(1, Integer.getInteger("gen.towns", stores / 25));
+      townLat = new double[towns];
+      townLong = new double[towns];
+      for (int t = 0; t < towns; ++t) {
+         townLat[t] = random.nextDouble() * MAX_COORDINATE;
+         townLong[t] = random.nextDouble() * MAX_COORDINATE;
+      }
+
+      long start = System.nanoTime();
+      report("users.csv", writeUsers(), start);
+      start = System.nanoTime();
+      report("warehouse.csv", writeWarehouses(), start);
+      start = System.nanoTime();
+      report("stores.csv", writeStores(), start);
+      start = System.nanoTime();
+      report("products.csv", writeProducts(), start);
+      start = System.nanoTime();
+      report("orders.csv", writeOrders(), start);
+      start = System.nanoTime();
+      report("productUpdates.csv", writeProductUpdates(), start);
+      start = System.nanoTime();
+      report("productSupplyRequests.csv", writeSupplyRequests(), start);
+   }//end generate
+
+   /*
+    * User 1 is the admin, about 6% of the others are managers and the rest
+    * are customers, most of whom live in a town.
+    */
+   private long writeUsers() throws IOException {
+      userTown = new int[users + 1];
+      int managerCount = Math.max(1, Math.min(users - 2, (int) Math.round(users * 0.06)));
+      managers = new int[managerCount];
+      customers = new int[users - 1 - managerCount];
+      // spread the managers over the id range
+      boolean[] isManager = new boolean[users + 1];
+      for (int m = 0; m < managerCount; ++m) {
+         int id = 2 + (int) ((long) m * (users - 1) / managerCount);
+         isManager[id] = true;
+         managers[m] = id;
+      }
+
+      Writer out = open("users.csv", "userID,name,password,latitude,longitude,type");
+      try {
+         int c = 0;
+         for (int id = 1; id <= users; ++id) {
+            String type = id == 1 ? "admin" : isManager[id] ? "manager" : "customer";
+            if (id > 1 && !isManager[id]) customers[c++] = id;
+            double lat, lng;
+            if (random.nextDouble() < localShare) {
+               int t = random.nextInt(townLat.length);
+               userTown[id] = t;
+               lat = near(townLat[t]);
+               lng = near(townLong[t]);
+            } else {
+               userTown[id] = -1;
+               lat = random.nextDouble() * MAX_COORDINATE;
+               lng = random.nextDouble() * MAX_COORDINATE;
+            }
+            line(out, id + "," + (id == 1 ? "Admin" : "User" + id) + "," + word(3 + random.nextInt(6)) + "," +
+                      coordinate(lat) + "," + coordinate(lng) + "," + type);
+         }
+      } finally {
+         out.close();
+      }
+      // customer rank -> id is random, so the heavy buyers are spread out
+      shuffle(customers);
+      return users;
+   }//end writeUsers
+
+   private long writeWarehouses() throws IOException {
+      Writer out = open("warehouse.csv", "wareHouseID,area,latitude,longitude");
+      try {
+         for (int id = 1; id <= warehouses; ++id)
+            line(out, id + "," + (5000 + random.nextInt(20) * 1000) + "," +
+                      coordinate(random.nextDouble() * MAX_COORDINATE) + "," +
+                      coordinate(random.nextDouble() * MAX_COORDINATE));
+      } finally {
+         out.close();
+      }
+      return warehouses;
+   }//end writeWarehouses
+
+   private long writeStores() throws IOException {
+      storeManager = new int[stores];
+      int[] storeTown = new int[stores];
+      int[] townCount = new int[townLat.length];
+      Writer out = open("stores.csv", "storeID,name,latitude,longitude,managerID,dateEstablished");
+      try {
+         for (int s = 0; s < stores; ++s) {
+            int t = random.nextInt(townLat.length);
+            storeTown[s] = t;
+            townCount[t]++;
+            // managers run stores in turn, so each runs one or more of them
+            storeManager[s] = managers[s % managers.length];
+            line(out, (s + 1) + "," + word(4) + "," + coordinate(near(townLat[t])) + "," +
+                      coordinate(near(townLong[t])) + "," + storeManager[s] + "," +
+                      (1 + random.nextInt(12)) + "/" + (1 + random.nextInt(28)) + "/" + (1950 + random.nextInt(66)));
+         }
+      } finally {
+         out.close();
+      }
+      townStores = new int[townLat.length][];
+      for (int t = 0; t < townStores.length; ++t)
+         townStores[t] = new int[townCount[t]];
+      Arrays.fill(townCount, 0);
+      for (int s = 0; s < stores; ++s)
+         townStores[storeTown[s]][townCount[storeTown[s]]++] = s + 1;
+      return stores;
+   }//end writeStores
+
+   /*
+    * Every store carries productsPerStore distinct products, drawn from the
+    * catalog with Zipf weights so that the popular products are everywhere.
+    */
+   private long writeProducts() throws IOException {
+      Zipf pick = new Zipf(catalogSize, productSkew);
+      storeProducts = new int[stores * productsPerStore];
+      boolean[] carried = new boolean[catalogSize];
+      Writer out = open("products.csv", "storeID,productName,numberOfUnits,pricePerUnit");
+      try {
+         for (int s = 0; s < stores; ++s) {
+            int[] chosen = new int[productsPerStore];
+            for (int n = 0; n < productsPerStore; ) {
+               int p = pick.next(random);
+               if (carried[p]) continue;
+               carried[p] = true;
+               chosen[n++] = p;
+            }
+            Arrays.sort(chosen);
+            for (int n = 0; n < productsPerStore; ++n) {
+               int p = chosen[n];
+               carried[p] = false;
+               storeProducts[s * productsPerStore + n] = p;
+               line(out, (s + 1) + "," + catalog[p] + "," + (10 + random.nextInt(90)) + "," + (1 + random.nextInt(10)));
+            }
+         }
+      } finally {
+         out.close();
+      }
+      return (long) stores * productsPerStore;
+   }//end writeProducts
+
+   private long writeOrders() throws IOException {
+      Zipf customer = new Zipf(customers.length, customerSkew);
+      Zipf product = new Zipf(productsPerStore, productSkew);
+      Clock clock = new Clock(orders);
+      Writer out = open("orders.csv", "orderNumber,customerID,storeID,productName,unitsOrdered,orderTime");
+      try {
+         for (long n = 1; n <= orders; ++n) {
+            int c = customers[customer.next(random)];
+            int s = storeFor(c);
+            int p = storeProducts[(s - 1) * productsPerStore + product.next(random)];
+            line(out, n + "," + c + "," + s + "," + catalog[p] + "," + (1 + random.nextInt(10)) + "," + clock.next(n));
+            progress("orders.csv", n);
+         }
+      } finally {
+         out.close();
+      }
+      return orders;
+   }//end writeOrders
+
+   private long writeProductUpdates() throws IOException {
+      Clock clock = new Clock(updates);
+      Writer out = open("productUpdates.csv", "updateNumber,managerID,storeID,productName,updatedOn");
+      try {
+         for (long n = 1; n <= updates; ++n) {
+            int s = 1 + random.nextInt(stores);
+            int p = storeProducts[(s - 1) * productsPerStore + random.nextInt(productsPerStore)];
+            line(out, n + "," + storeManager[s - 1] + "," + s + "," + catalog[p] + "," + clock.next(n));
+            progress("productUpdates.csv", n);
+         }
+      } finally {
+         out.close();
+      }
+      return updates;
+   }//end writeProductUpdates
+
+   private long writeSupplyRequests() throws IOException {
+      Writer out = open("productSupplyRequests.csv",
+                        "requestNumber,managerID,warehouseID,storeID,productName,unitsRequested");
+      try {
+         for (long n = 1; n <= supplyRequests; ++n) {
+            int s = 1 + random.nextInt(stores);
+            int p = storeProducts[(s - 1) * productsPerStore + random.nextInt(productsPerStore)];
+            line(out, n + "," + storeManager[s - 1] + "," + (1 + random.nextInt(warehouses)) + "," + s + "," +
+                      catalog[p] + "," + (1 + random.nextInt(100)));
+            progress("productSupplyRequests.csv", n);
+         }
+      } finally {
+         out.close();
+      }
+      return supplyRequests;
+   }//end writeSupplyRequests
+
+   /*
+    * Customers living in a town with stores mostly buy there; everybody
+    * else picks any store.
+    */
+   private int storeFor(int customerId) {
+      int t = userTown[customerId];
+      if (t >= 0 && townStores[t].length > 0 && random.nextDouble() < localShare)
+         return townStores[t][random.nextInt(townStores[t].length)];
+      return 1 + random.nextInt(stores);
+   }
+
+   private double near(double center) {
+      double v = center + random.nextGaussian() * townRadius;
+      return Math.max(0, Math.min(MAX_COORDINATE, v));
+   }
+
+   private String word(int length) {
+      char[] c = new char[length];
+      for (int i = 0; i < length; ++i)
+         c[i] = (char) ('a' + random.nextInt(26));
+      return new String(c);
+   }
+
+   private void shuffle(int[] a) {
+      for (int i = a.length - 1; i > 0; --i) {
+         int j = random.nextInt(i + 1);
+         int tmp = a[i];
+         a[i] = a[j];
+         a[j] = tmp;
+      }
+   }
+
+   private static String coordinate(double v) {
+      return String.format(Locale.US, "%.5f", v);
+   }
+
+   private Writer open(String name, String header) throws IOException {
+      Writer out = new BufferedWriter(new OutputStreamWriter(
+         new FileOutputStream(new File(dir, name)), "UTF-8"), 1 << 16);
+      line(out, header);
+      return out;
+   }
+
+   private static void line(Writer out, String row) throws IOException {
+      out.write(row);
+      out.write('\n');
+   }
+
+   private static void progress(String name, long n) {
+      if (n % 10000000L == 0)
+         System.err.println(String.format("%s: %,d rows", name, n));
+   }
+
+   private static void report(String name, long rows, long startNanos) {
+      double seconds = (System.nanoTime() - startNanos) / 1e9;
+      System.out.println(String.format("%-26s %,14d rows %8.1f s %,12.0f rows/sec",
+                                       name, rows, seconds, seconds > 0 ? rows / seconds : 0));
+   }
+
+   /**
+    * Draws ranks 0..n-1 with probability proportional to 1 / (rank + 1)^skew.
+    */
+   static class Zipf {
+      private final double[] cdf;
+
+      Zipf(int n, double skew) {
+         cdf = new double[n];
+         double sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+         }
+         for (int i = 0; i < n; ++i)
+            cdf[i] /= sum;
+      }
+
+      int next(Random random) {
+         int i = Arrays.binarySearch(cdf, random.nextDouble());
+         if (i < 0) i = -i - 1;
+         return Math.min(i, cdf.length - 1);
+      }
+   }//end Zipf
+
+   /**
+    * Hands out increasing timestamps spread evenly over gen.days days,
+    * formatting the date part only once per day.
+    */
+   private class Clock {
+      private final long startMillis;
+      private final double stepMillis;
+      private final SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd ");
+      private long day = -1;
+      private String dayText;
+
+      Clock(long rows) {
+         Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+         c.clear();
+         c.set(2016, Calendar.JANUARY, 1);
+         startMillis = c.getTimeInMillis();
+         stepMillis = rows > 0 ? days * 86400000.0 / rows : 0;
+         dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+      }
+
+      String next(long n) {
+         long t = startMillis + (long) ((n - 1) * stepMillis);
+         long d = t / 86400000L;
+         if (d != day) {
+            day = d;
+            dayText = dayFormat.format(new java.util.Date(d * 86400000L));
+         }
+         int seconds = (int) ((t / 1000) % 86400);
+         StringBuilder sb = new StringBuilder(19).append(dayText);
+         pad(sb, seconds / 3600).append(':');
+         pad(sb, seconds / 60 % 60).append(':');
+         return pad(sb, seconds % 60).toString();
+      }
+
+      private StringBuilder pad(StringBuilder sb, int v) {
+         if (v < 10) sb.append('0');
+         return sb.append(v);
+      }
+   }//end Clock
+
+   public static void main (String[] args) {
+      if (args.length < 1 || args.length > 2) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] [-Dgen.orders=<rows> ...] " +
+            DataGenerator.class.getName () +
+            " <output dir> [scale]");
+         return;
+      }//end if
+      try {
+         double scale = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+         new DataGenerator(new File(args[0]), scale).generate();
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+}//end DataGenerator
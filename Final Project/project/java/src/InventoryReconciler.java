@@ -0,0 +1,188 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class keeps the stock and the InventoryMovements ledger in step.
+ * In the background it posts the pending StockReservations to Product,
+ * and from time to time it verifies that every product's orderable stock
+ * equals the sum of its movements, reporting the products that differ.
+ * Run it on its own to post and verify once.
+ *
+ */
+public class InventoryReconciler {
+
+   // how often pending reservations are posted; 0 disables posting in the background
+   static final long POST_MILLIS = Long.getLong("retail.inventory.postMillis", 1000L);
+
+   // how often the ledger is verified; 0 disables it, since it reads the whole ledger
+   static final long RECONCILE_MILLIS = Long.getLong("retail.inventory.reconcileMillis", 0L);
+
+   /**
+    * A product whose orderable stock differs from its ledger balance, or
+    * has gone negative.
+    */
+   public static class Discrepancy {
+      public final int storeId;
+      public final String productName;
+      public final int numberOfUnits;
+      public final long ledgerBalance;
+
+      // maps the storeID, productName, numberOfUnits and balance columns
+      public static final RowMapper<Discrepancy> MAPPER = new RowMapper<Discrepancy>() {
+         public Discrepancy map(ResultSet rs) throws SQLException {
+            return new Discrepancy(rs.getInt("storeID"), rs.getString("productName").trim(),
+                                   rs.getInt("numberOfUnits"), rs.getLong("balance"));
+         }
+      };
+
+      public Discrepancy(int storeId, String productName, int numberOfUnits, long ledgerBalance) {
+         this.storeId = storeId;
+         this.productName = productName;
+         this.numberOfUnits = numberOfUnits;
+         this.ledgerBalance = ledgerBalance;
+      }
+
+      public String toString() {
+         return storeId + "\t" + productName + "\tstock=" + numberOfUnits + "\tledger=" + ledgerBalance;
+      }
+   }//end Discrepancy
+
+   // one snapshot, so an order's movement and its stock change are seen together
+   private static final String RECONCILE_SQL =
+      "SELECT s.storeID, s.productName, s.numberOfUnits, COALESCE(m.balance, 0) AS balance " +
+      "FROM PRODUCTSTOCK s LEFT JOIN (SELECT storeID, productName, SUM(delta) AS balance " +
+      "FROM INVENTORYMOVEMENTS GROUP BY storeID, productName) m " +
+      "ON m.storeID = s.storeID AND m.productName = s.productName " +
+      "WHERE s.numberOfUnits <> COALESCE(m.balance, 0) OR s.numberOfUnits < 0 " +
+      "ORDER BY s.storeID, s.productName";
+
+   private final Retail esql;
+   private Timer timer = null;
+
+   public InventoryReconciler(Retail esql) {
+      this.esql = esql;
+   }
+
+   /**
+    * Subtracts the pending reservations from Product.
+    *
+    * @return the number of orders posted
+    * @throws java.sql.SQLException when the posting fails; nothing is posted then
+    */
+   public int post() throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("postStockReservations");
+      try {
+         return esql.executeQueryForObject ("SELECT post_stock_reservations()", RowMapper.INTEGER);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }//end post
+
+   /**
+    * Verifies the ledger against the stock of every product.
+    *
+    * @return the products that differ, empty when the ledger matches
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<Discrepancy> reconcile() throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("reconcileInventory");
+      try {
+         return esql.executeQueryForList (RECONCILE_SQL, Discrepancy.MAPPER);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }//end reconcile
+
+   /**
+    * Starts posting and verifying in the background, as configured by
+    * retail.inventory.postMillis and retail.inventory.reconcileMillis.
+    * Discrepancies and failures are reported on stderr.
+    */
+   public synchronized void start() {
+      if (timer != null || (POST_MILLIS <= 0 && RECONCILE_MILLIS <= 0)) return;
+      timer = new Timer("InventoryReconciler", true);
+      if (POST_MILLIS > 0) {
+         timer.schedule(new TimerTask() {
+            public void run() {
+               try {
+                  post();
+               } catch (SQLException e) {
+                  System.err.println("Posting stock reservations failed: " + e.getMessage());
+               }
+            }
+         }, POST_MILLIS, POST_MILLIS);
+      }
+      if (RECONCILE_MILLIS > 0) {
+         timer.schedule(new TimerTask() {
+            public void run() {
+               try {
+                  for (Discrepancy d : reconcile())
+                     System.err.println("Inventory ledger mismatch: " + d);
+               } catch (SQLException e) {
+                  System.err.println("Inventory reconciliation failed: " + e.getMessage());
+               }
+            }
+         }, RECONCILE_MILLIS, RECONCILE_MILLIS);
+      }
+   }//end start
+
+   public synchronized boolean isRunning() {
+      return timer != null;
+   }
+
+   public synchronized void stop() {
+      if (timer == null) return;
+      timer.cancel();
+      timer = null;
+   }
+
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            InventoryReconciler.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      Retail esql = null;
+      try {
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new Retail (args[0], args[1], args[2], "");
+         InventoryReconciler reconciler = new InventoryReconciler(esql);
+         System.out.println("Posted " + reconciler.post() + " reservations");
+         List<Discrepancy> discrepancies = reconciler.reconcile();
+         for (Discrepancy d : discrepancies)
+            System.out.println(d);
+         System.out.println(discrepancies.isEmpty()
+            ? "The ledger matches the stock of every product"
+            : discrepancies.size() + " products differ from the ledger");
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) esql.cleanup ();
+      }
+   }//end main
+}//end InventoryReconciler
@@ -0,0 +1,370 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class drives Retail from many threads at once to find out how many
+ * concurrent sessions it serves before latency degrades.  Every thread is a
+ * session that picks operations from a weighted mix, e.g. mostly browsing,
+ * some orders and a few manager reports, through RetailService and the
+ * shared connection pool.
+ *
+ * In closed-loop mode each session waits for its previous operation and a
+ * think time before the next one.  In open-loop mode operations arrive at a
+ * fixed total rate regardless of how fast they complete, and latency is
+ * measured from the intended start, so queueing delay is not hidden.
+ *
+ * The placeHotOrder operation orders one unit of a single product, the
+ * first one sampled, to measure a flash sale.  With -Dworkload.hotStripes=N
+ * that product is restocked and its stock split over N stripes first (0
+ * keeps it in one Product row), e.g. run
+ *   -Dworkload.mix=placeHotOrder=1 -Dworkload.hotStripes=1, then 4, then 16
+ * to see its order throughput grow with the stripes.
+ *
+ * Orders refused without an error, such as when the product has run out,
+ * are counted apart and left out of the latencies, so a drained product
+ * does not pass off its cheap refusals as placed orders.
+ *
+ */
+public class LoadGenerator {
+
+   // operations, in the order they are reported
+   static final String[] OPERATIONS = {
+      "logIn", "viewStores", "viewProducts", "viewRecentOrders", "placeOrder",
+      "viewPopularProducts", "viewPopularCustomers", "placeHotOrder"
+   };
+
+   // 80% browsing, 15% orders, 5% manager reports
+   static final String DEFAULT_MIX =
+      "logIn=5,viewStores=25,viewProducts=30,viewRecentOrders=20,placeOrder=15,viewPopularProducts=3,viewPopularCustomers=2";
+
+   private final Retail esql;
+   private final RetailBenchmark.Sample sample;
+   private final int threads;
+   private final boolean openLoop;
+   private final double ratePerSecond;
+   private final double thinkMillis;
+
+   // cumulative weights of OPERATIONS
+   private final int[] mix = new int[OPERATIONS.length];
+
+   /**
+    * Latencies and failures of one operation, recorded by one thread.
+    */
+   static class Recorder {
+      long[] nanos = new long[1024];
+      int count = 0;
+      long errors = 0;
+      long deadlocks = 0;
+      // runs that returned a refusal, such as an order for a product out of stock
+      long refused = 0;
+
+      void record(long latency) {
+         if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+         nanos[count++] = latency;
+      }
+
+      void addAll(Recorder other) {
+         if (count + other.count > nanos.length)
+            nanos = Arrays.copyOf(nanos, Math.max(nanos.length * 2, count + other.count));
+         System.arraycopy(other.nanos, 0, nanos, count, other.count);
+         count += other.count;
+         errors += other.errors;
+         deadlocks += other.deadlocks;
+         refused += other.refused;
+      }
+   }//end Recorder
+
+   /**
+    * Creates a load generator
+    *
+    * @param esql the database to run against; its pool should have a connection per thread
+    * @param threads the number of concurrent sessions
+    * @param mix weights of the operations, e.g. "viewStores=80,placeOrder=20"
+    * @param openLoop true for a fixed arrival rate, false for think-time driven sessions
+    * @param ratePerSecond total arrival rate in open-loop mode
+    * @param thinkMillis mean think time between operations in closed-loop mode
+    * @throws java.lang.Exception when the mix is invalid or no parameters can be sampled
+    */
+   public LoadGenerator(Retail esql, int threads, String mix, boolean openLoop,
+                        double ratePerSecond, double thinkMillis) throws Exception {
+      this.esql = esql;
+      this.sample = new RetailBenchmark.Sample(esql);
+      this.threads = Math.max(1, threads);
+      this.openLoop = openLoop;
+      this.ratePerSecond = ratePerSecond;
+      this.thinkMillis = thinkMillis;
+
+      int[] weights = new int[OPERATIONS.length];
+      for (String entry : mix.split(",")) {
+         String[] kv = entry.trim().split("=");
+         int op = Arrays.asList(OPERATIONS).indexOf(kv[0].trim());
+         if (op < 0 || kv.length != 2) throw new Exception("Unknown operation in mix: " + entry);
+         weights[op] = Integer.parseInt(kv[1].trim());
+      }
+      int sum = 0;
+      for (int i = 0; i < weights.length; ++i)
+         this.mix[i] = sum += weights[i];
+      if (sum <= 0) throw new Exception("The operation mix is empty");
+      if (openLoop && ratePerSecond <= 0) throw new Exception("Open-loop mode needs a rate above 0");
+   }//end LoadGenerator
+
+   /**
+    * Runs the workload and returns the merged recorders, one per operation.
+    *
+    * @param warmupMillis time run before latencies are recorded
+    * @param measureMillis time latencies are recorded for
+    * @return one recorder per entry of OPERATIONS
+    * @throws java.lang.InterruptedException when interrupted while waiting for the sessions
+    */
+   public Recorder[] run(long warmupMillis, long measureMillis) throws InterruptedException {
+      final long measureStart = System.nanoTime() + warmupMillis * 1000000L;
+      final long end = measureStart + measureMillis * 1000000L;
+      final Recorder[][] recorders = new Recorder[threads][];
+      Thread[] sessions = new Thread[threads];
+      for (int t = 0; t < threads; ++t) {
+         final Recorder[] own = new Recorder[OPERATIONS.length];
+         for (int i = 0; i < own.length; ++i) own[i] = new Recorder();
+         recorders[t] = own;
+         final Random random = new Random(166 + t);
+         sessions[t] = new Thread("session-" + t) {
+            public void run() {
+               session(random, own, measureStart, end);
+            }
+         };
+         sessions[t].start();
+      }
+      for (Thread session : sessions)
+         session.join();
+
+      Recorder[] merged = new Recorder[OPERATIONS.length];
+      for (int i = 0; i < merged.length; ++i) {
+         merged[i] = new Recorder();
+         for (Recorder[] own : recorders)
+            merged[i].addAll(own[i]);
+      }
+      return merged;
+   }//end run
+
+   /*
+    * The loop of one session
+    */
+   private void session(Random random, Recorder[] recorders, long measureStart, long end) {
+      // in open-loop mode every session takes an equal share of the arrivals
+      double meanGapNanos = openLoop ? threads * 1e9 / ratePerSecond : 0;
+      long next = System.nanoTime();
+      while (true) {
+         long start;
+         if (openLoop) {
+            next += (long) exponential(random, meanGapNanos);
+            long wait = next - System.nanoTime();
+            if (wait > 0) sleepNanos(wait);
+            // measured from the intended start, so time spent queued counts
+            start = next;
+         } else {
+            start = System.nanoTime();
+         }
+         if (start >= end) return;
+
+         int op = pick(random);
+         Recorder recorder = recorders[op];
+         try {
+            boolean done = execute(op, random);
+            if (start >= measureStart) {
+               if (done) recorder.record(System.nanoTime() - start);
+               else recorder.refused++;
+            }
+         } catch (SQLException e) {
+            if (start >= measureStart) {
+               recorder.errors++;
+               if (isDeadlock(e)) recorder.deadlocks++;
+            }
+         }
+
+         if (!openLoop && thinkMillis > 0)
+            sleepNanos((long) (exponential(random, thinkMillis) * 1000000L));
+      }//end while
+   }//end session
+
+   private int pick(Random random) {
+      int r = random.nextInt(mix[mix.length - 1]);
+      for (int i = 0; i < mix.length; ++i)
+         if (r < mix[i]) return i;
+      return mix.length - 1;
+   }
+
+   /*
+    * Runs one operation with parameters drawn from the sample; returns
+    * false if it was refused, e.g. an order the stock could not fill
+    */
+   private boolean execute(int op, Random random) throws SQLException {
+      RetailService service = esql.getService ();
+      List<String> row;
+      switch (op) {
+         case 0:
+            row = RetailBenchmark.Sample.pick(sample.customers, random);
+            service.logIn(row.get(1).trim(), row.get(2).trim());
+            break;
+         case 1:
+            service.findStoresNear(id(sample.customers, random));
+            break;
+         case 2:
+            service.findProducts(id(sample.nearby, 1, random));
+            break;
+         case 3:
+            service.findRecentOrders(id(sample.customers, random), 5);
+            break;
+         case 4:
+            row = RetailBenchmark.Sample.pick(sample.nearby, random);
+            return placed(service.placeOrder(Integer.parseInt(row.get(0).trim()), Integer.parseInt(row.get(1).trim()),
+                                             row.get(2).trim(), 1));
+         case 5:
+            service.findPopularProducts(id(sample.managed, random), 5);
+            break;
+         case 6:
+            service.findPopularCustomers(id(sample.managed, random), 5);
+            break;
+         default:
+            row = sample.nearby.get(0);
+            return placed(service.placeOrder(Integer.parseInt(row.get(0).trim()), Integer.parseInt(row.get(1).trim()),
+                                             row.get(2).trim(), 1));
+      }//end switch
+      return true;
+   }//end execute
+
+   private static boolean placed(OrderResult result) {
+      return result.status == OrderResult.Status.PLACED;
+   }
+
+   /**
+    * Restocks the product ordered by placeHotOrder and splits its stock
+    * over stripes.
+    *
+    * @param stripes the number of stripes, 0 for none
+    * @param units the stock to give the product
+    * @throws java.sql.SQLException when the product cannot be restocked
+    */
+   public void prepareHotProduct(int stripes, int units) throws SQLException {
+      List<String> row = sample.nearby.get(0);
+      int storeId = Integer.parseInt(row.get(1).trim());
+      String productName = row.get(2).trim();
+      esql.stripeProduct(storeId, productName, stripes);
+      // spread over the stripes by the product_striped_stock trigger
+      esql.executeUpdate("UPDATE PRODUCT SET numberOfUnits = ? WHERE storeID = ? AND productName = ?",
+                         units, storeId, productName);
+      System.out.println(String.format("Hot product: %s in store %d, %d units in %d stripes",
+                                        productName, storeId, units, stripes));
+   }//end prepareHotProduct
+
+   private static int id(List<List<String>> rows, Random random) {
+      return id(rows, 0, random);
+   }
+
+   private static int id(List<List<String>> rows, int column, Random random) {
+      return Integer.parseInt(RetailBenchmark.Sample.pick(rows, random).get(column).trim());
+   }
+
+   static boolean isDeadlock(SQLException e) {
+      String message = e.getMessage();
+      return "40P01".equals(e.getSQLState()) || (message != null && message.contains("deadlock detected"));
+   }
+
+   private static double exponential(Random random, double mean) {
+      return -mean * Math.log(1 - random.nextDouble());
+   }
+
+   private static void sleepNanos(long nanos) {
+      try {
+         Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Prints throughput, latency percentiles and failures per operation.
+    */
+   static void report(Recorder[] recorders, double seconds) {
+      System.out.println(String.format("%-22s %10s %9s %9s %9s %9s %8s %9s %8s",
+                                       "operation", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors", "deadlocks",
+                                       "refused"));
+      Recorder total = new Recorder();
+      for (int i = 0; i < recorders.length; ++i) {
+         print(OPERATIONS[i], recorders[i], seconds);
+         total.addAll(recorders[i]);
+      }
+      print("total", total, seconds);
+   }//end report
+
+   private static void print(String name, Recorder r, double seconds) {
+      Arrays.sort(r.nanos, 0, r.count);
+      System.out.println(String.format(Locale.US, "%-22s %10.1f %9.3f %9.3f %9.3f %9.3f %8d %9d %8d",
+         name, r.count / seconds,
+         RetailBenchmark.percentile(r.nanos, r.count, 0.50), RetailBenchmark.percentile(r.nanos, r.count, 0.99),
+         RetailBenchmark.percentile(r.nanos, r.count, 0.999), RetailBenchmark.percentile(r.nanos, r.count, 1.0),
+         r.errors, r.deadlocks, r.refused));
+   }
+
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] [-Dworkload.threads=<n>] [-Dworkload.mode=closed|open] " +
+            "[-Dworkload.rate=<ops/s>] [-Dworkload.thinkMillis=<ms>] [-Dworkload.mix=<op=weight,...>] " +
+            "[-Dworkload.seconds=<s>] [-Dworkload.warmupSeconds=<s>] [-Dworkload.hotStripes=<n>] [-Dworkload.hotUnits=<n>] " +
+            LoadGenerator.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      int threads = Integer.getInteger("workload.threads", 8);
+      // one connection per session, unless the pool size is being studied
+      if (System.getProperty("retail.pool.maxSize") == null)
+         System.setProperty("retail.pool.maxSize", String.valueOf(threads));
+
+      Retail esql = null;
+      try {
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new Retail (args[0], args[1], args[2], "");
+
+         boolean openLoop = "open".equals(System.getProperty("workload.mode", "closed"));
+         LoadGenerator generator = new LoadGenerator(esql, threads,
+            System.getProperty("workload.mix", DEFAULT_MIX), openLoop,
+            Double.parseDouble(System.getProperty("workload.rate", "0")),
+            Double.parseDouble(System.getProperty("workload.thinkMillis", "0")));
+         if (System.getProperty("workload.hotStripes") != null)
+            generator.prepareHotProduct(Integer.getInteger("workload.hotStripes"),
+                                        Integer.getInteger("workload.hotUnits", 1000000));
+         long warmup = Long.getLong("workload.warmupSeconds", 10L) * 1000;
+         long measure = Long.getLong("workload.seconds", 60L) * 1000;
+
+         System.out.println(String.format("%d sessions, %s loop, %d s warmup, %d s measurement",
+                                          threads, openLoop ? "open" : "closed", warmup / 1000, measure / 1000));
+         Recorder[] recorders = generator.run(warmup, measure);
+         report(recorders, measure / 1000.0);
+         System.out.println("Pool: " + esql.getPool ());
+         System.out.println();
+         System.out.print(Retail.METRICS.dump ());
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) esql.cleanup ();
+      }
+   }//end main
+}//end LoadGenerator
@@ -0,0 +1,79 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class holds every precondition of a manager action on a product,
+ * read with one query by RetailService.checkManagerAction: the acting
+ * user's role, who runs the store, and whether the product and the
+ * warehouse exist.
+ *
+ */
+public class ManagerVerdict {
+
+   public final int userId;
+
+   // 'customer', 'manager' or 'admin', or null if there is no such user
+   public final String userType;
+
+   public final boolean storeExists;
+
+   // the store's manager, or 0 if there is no such store
+   public final int storeManagerId;
+
+   public final boolean productExists;
+   public final boolean warehouseExists;
+
+   // maps the userID, type, storeExists, managerID, productExists and warehouseExists columns
+   public static final RowMapper<ManagerVerdict> MAPPER = new RowMapper<ManagerVerdict>() {
+      public ManagerVerdict map(ResultSet rs) throws SQLException {
+         String type = rs.getString("type");
+         return new ManagerVerdict(rs.getInt("userID"), type == null ? null : type.trim(), rs.getBoolean("storeExists"),
+                                   rs.getInt("managerID"), rs.getBoolean("productExists"), rs.getBoolean("warehouseExists"));
+      }
+   };
+
+   public ManagerVerdict(int userId, String userType, boolean storeExists, int storeManagerId,
+                         boolean productExists, boolean warehouseExists) {
+      this.userId = userId;
+      this.userType = userType;
+      this.storeExists = storeExists;
+      this.storeManagerId = storeManagerId;
+      this.productExists = productExists;
+      this.warehouseExists = warehouseExists;
+   }
+
+   /**
+    * Returns the first precondition that fails, in the order the console
+    * asks for the inputs.
+    *
+    * @param adminMayChangeAny true if admins may act on stores they do not run
+    * @param needsWarehouse true if the action names a warehouse
+    * @return OK, NOT_AUTHORIZED, NO_SUCH_STORE, NOT_YOUR_STORE, NO_SUCH_PRODUCT or NO_SUCH_WAREHOUSE
+    */
+   public RetailService.Status status(boolean adminMayChangeAny, boolean needsWarehouse) {
+      if (userType == null || userType.equals("customer")) return RetailService.Status.NOT_AUTHORIZED;
+      if (!storeExists) return RetailService.Status.NO_SUCH_STORE;
+      boolean mayChangeAny = adminMayChangeAny && userType.equals("admin");
+      if (!mayChangeAny && storeManagerId != userId) return RetailService.Status.NOT_YOUR_STORE;
+      if (!productExists) return RetailService.Status.NO_SUCH_PRODUCT;
+      if (needsWarehouse && !warehouseExists) return RetailService.Status.NO_SUCH_WAREHOUSE;
+      return RetailService.Status.OK;
+   }//end status
+
+   public String toString() {
+      return userId + "\t" + userType + "\t" + storeExists + "\t" + storeManagerId + "\t" + productExists + "\t" + warehouseExists;
+   }
+}//end ManagerVerdict
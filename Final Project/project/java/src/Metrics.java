@@ -0,0 +1,432 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.ObjectName;
+
+/**
+ * This class keeps latency histograms, row counts and error counts per
+ * RetailService operation, per SQL statement and for the time spent
+ * waiting for a pooled connection.  Recording is lock free, a few atomic
+ * increments per statement, so it can stay on in production.
+ *
+ * The hit and miss counts of the registered TtlCaches are published with
+ * them.  The figures are published through JMX as "Retail:type=Metrics" and,
+ * when retail.metrics.reportMillis is set, written periodically for the
+ * interval since the previous report: as CSV rows appended to
+ * retail.metrics.file, or as a text table on standard error.
+ *
+ */
+public class Metrics implements MetricsMXBean {
+
+   // set -Dretail.metrics=false to turn the instrumentation off
+   static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("retail.metrics", "true"));
+
+   // period of the interval reports; 0 disables them
+   static final long REPORT_MILLIS = Long.getLong("retail.metrics.reportMillis", 0L);
+
+   // CSV file the reports are appended to; null prints them to standard error
+   static final String REPORT_FILE = System.getProperty("retail.metrics.file");
+
+   // distinct operations and statements tracked; the rest are counted under OTHER
+   static final int MAX_NAMES = Integer.getInteger("retail.metrics.maxNames", 1000);
+
+   static final String OTHER = "(other)";
+
+   // 8 buckets per power of two of microseconds, so a latency is reported at most 12.5% high
+   private static final int SUB_BUCKETS = 8;
+   private static final int BUCKETS = SUB_BUCKETS * 42;
+
+   /**
+    * Latencies of one operation or statement, with its row and error counts.
+    */
+   public static class Histogram {
+      private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+      private final AtomicLong count = new AtomicLong();
+      private final AtomicLong errors = new AtomicLong();
+      private final AtomicLong rows = new AtomicLong();
+      private final AtomicLong sumNanos = new AtomicLong();
+      private final AtomicLong maxNanos = new AtomicLong();
+
+      public void record(long nanos, long rowCount, boolean failed) {
+         buckets.incrementAndGet(bucket(nanos / 1000));
+         count.incrementAndGet();
+         sumNanos.addAndGet(nanos);
+         if (rowCount > 0) rows.addAndGet(rowCount);
+         if (failed) errors.incrementAndGet();
+         long max = maxNanos.get();
+         while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+            max = maxNanos.get();
+      }
+
+      public Snapshot snapshot() {
+         long[] copy = new long[BUCKETS];
+         for (int i = 0; i < BUCKETS; ++i)
+            copy[i] = buckets.get(i);
+         return new Snapshot(count.get(), errors.get(), rows.get(), sumNanos.get(), maxNanos.get(), copy);
+      }
+   }//end Histogram
+
+   /**
+    * The figures of a histogram at one point in time, or over an interval.
+    */
+   public static class Snapshot {
+      private final long count;
+      private final long errors;
+      private final long rows;
+      private final long sumNanos;
+      private final long maxNanos;
+      private final long[] buckets;
+      private final long recorded;
+
+      Snapshot(long count, long errors, long rows, long sumNanos, long maxNanos, long[] buckets) {
+         this.count = count;
+         this.errors = errors;
+         this.rows = rows;
+         this.sumNanos = sumNanos;
+         this.maxNanos = maxNanos;
+         this.buckets = buckets;
+         long sum = 0;
+         for (long b : buckets) sum += b;
+         // may differ from count by the recordings in flight when the snapshot was taken
+         this.recorded = sum;
+      }
+
+      public long getCount() { return count; }
+      public long getErrors() { return errors; }
+      public long getRows() { return rows; }
+      public double getTotalMillis() { return sumNanos / 1e6; }
+      public double getMeanMillis() { return count == 0 ? 0 : sumNanos / 1e6 / count; }
+      public double getMaxMillis() { return maxNanos / 1e6; }
+      public double getP50Millis() { return percentileMillis(0.50); }
+      public double getP90Millis() { return percentileMillis(0.90); }
+      public double getP99Millis() { return percentileMillis(0.99); }
+      public double getP999Millis() { return percentileMillis(0.999); }
+
+      /**
+       * Returns the latency below which a fraction p of the recordings fall.
+       */
+      public double percentileMillis(double p) {
+         if (recorded == 0) return 0;
+         long rank = Math.max(1, (long) Math.ceil(p * recorded));
+         long seen = 0;
+         for (int i = 0; i < buckets.length; ++i) {
+            seen += buckets[i];
+            if (seen >= rank) return Math.min(upperMicros(i) / 1e3, getMaxMillis());
+         }
+         return getMaxMillis();
+      }
+
+      /*
+       * The figures recorded since an earlier snapshot of the same histogram
+       */
+      Snapshot since(Snapshot earlier) {
+         long[] diff = new long[buckets.length];
+         int highest = -1;
+         for (int i = 0; i < diff.length; ++i) {
+            diff[i] = buckets[i] - earlier.buckets[i];
+            if (diff[i] > 0) highest = i;
+         }
+         // the exact maximum of an interval is not kept; use its highest bucket
+         long max = highest < 0 ? 0 : Math.min(upperMicros(highest) * 1000, maxNanos);
+         return new Snapshot(count - earlier.count, errors - earlier.errors, rows - earlier.rows,
+                             sumNanos - earlier.sumNanos, max, diff);
+      }
+   }//end Snapshot
+
+   /**
+    * Times one operation, from begin() to end().
+    */
+   public static class Span {
+      private final Histogram histogram;
+      private final long start;
+      private boolean failed = false;
+
+      Span(Histogram histogram) {
+         this.histogram = histogram;
+         this.start = histogram == null ? 0 : System.nanoTime();
+      }
+
+      // counts the operation as failed and returns the exception, for "throw span.fail(e)"
+      public <E extends Exception> E fail(E e) {
+         if (histogram != null) failed = true;
+         return e;
+      }
+
+      public void end() {
+         if (histogram != null) histogram.record(System.nanoTime() - start, 0, failed);
+      }
+   }//end Span
+
+   private static final Span DISABLED = new Span(null);
+
+   private final ConcurrentHashMap<String, Histogram> operations = new ConcurrentHashMap<String, Histogram>();
+   private final ConcurrentHashMap<String, Histogram> statements = new ConcurrentHashMap<String, Histogram>();
+   private volatile Histogram connectionWait = new Histogram();
+
+   // caches whose statistics are published, by name
+   private final ConcurrentHashMap<String, TtlCache<?, ?>> caches = new ConcurrentHashMap<String, TtlCache<?, ?>>();
+
+   // snapshots taken by the previous report, keyed by kind and name
+   private final Map<String, Snapshot> previous = new HashMap<String, Snapshot>();
+   private Timer reporter = null;
+   private boolean registered = false;
+
+   /**
+    * Starts timing a RetailService operation.  Call end() in a finally
+    * block, and fail() when the operation throws.
+    *
+    * @param operation the name the operation is reported under
+    */
+   public Span begin(String operation) {
+      if (!ENABLED) return DISABLED;
+      return new Span(histogram(operations, operation));
+   }
+
+   /**
+    * Records one execution of a statement.
+    *
+    * @param sql the statement, with ? placeholders, so every execution of it shares one histogram
+    * @param nanos how long it ran, without the wait for a connection
+    * @param rows the rows returned or changed, or -1 when the statement failed
+    */
+   public void recordStatement(String sql, long nanos, long rows) {
+      if (!ENABLED) return;
+      histogram(statements, sql).record(nanos, rows, rows < 0);
+   }
+
+   /**
+    * Records how long a statement waited for a pooled connection.
+    */
+   public void recordConnectionWait(long nanos) {
+      if (!ENABLED) return;
+      connectionWait.record(nanos, 0, false);
+   }
+
+   /**
+    * Publishes the statistics of a cache under a name.  They are cumulative
+    * since the cache was created; reset() leaves them alone.
+    */
+   public void registerCache(String name, TtlCache<?, ?> cache) {
+      caches.put(name, cache);
+   }
+
+   private static Histogram histogram(ConcurrentHashMap<String, Histogram> map, String name) {
+      Histogram h = map.get(name);
+      if (h != null) return h;
+      if (map.size() >= MAX_NAMES) {
+         name = OTHER;
+         h = map.get(name);
+         if (h != null) return h;
+      }
+      h = new Histogram();
+      Histogram raced = map.putIfAbsent(name, h);
+      return raced != null ? raced : h;
+   }
+
+   /*
+    * Bucket of a latency in microseconds: exact below 8, then 8 buckets per power of two
+    */
+   static int bucket(long micros) {
+      if (micros < SUB_BUCKETS) return (int) Math.max(0, micros);
+      int exp = 63 - Long.numberOfLeadingZeros(micros);
+      int index = (exp - 2) * SUB_BUCKETS + (int) ((micros >>> (exp - 3)) & (SUB_BUCKETS - 1));
+      return Math.min(index, BUCKETS - 1);
+   }
+
+   // largest latency, in microseconds, counted in a bucket
+   static long upperMicros(int index) {
+      if (index < SUB_BUCKETS) return index;
+      int exp = index / SUB_BUCKETS + 2;
+      return ((SUB_BUCKETS + index % SUB_BUCKETS + 1L) << (exp - 3)) - 1;
+   }
+
+   /*
+    * JMX
+    */
+
+   public Map<String, Snapshot> getOperations() {
+      return snapshots(operations);
+   }
+
+   public Map<String, Snapshot> getStatements() {
+      return snapshots(statements);
+   }
+
+   public Snapshot getConnectionWait() {
+      return connectionWait.snapshot();
+   }
+
+   public Map<String, String> getCaches() {
+      Map<String, String> result = new TreeMap<String, String>();
+      for (Map.Entry<String, TtlCache<?, ?>> e : caches.entrySet())
+         result.put(e.getKey(), e.getValue().toString());
+      return result;
+   }
+
+   private static Map<String, Snapshot> snapshots(Map<String, Histogram> histograms) {
+      Map<String, Snapshot> result = new TreeMap<String, Snapshot>();
+      for (Map.Entry<String, Histogram> e : histograms.entrySet())
+         result.put(e.getKey(), e.getValue().snapshot());
+      return result;
+   }
+
+   public String dump() {
+      return table(rows(false)) + cacheTable();
+   }
+
+   public synchronized void reset() {
+      operations.clear();
+      statements.clear();
+      connectionWait = new Histogram();
+      previous.clear();
+   }
+
+   /**
+    * Registers the JMX bean and starts the periodic reports, once per
+    * process; later calls do nothing.
+    */
+   public synchronized void start() {
+      if (!ENABLED) return;
+      if (!registered) {
+         registered = true;
+         try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("Retail:type=Metrics"));
+         } catch (Exception e) {
+            System.err.println("Metrics not published through JMX: " + e.getMessage());
+         }
+      }
+      if (reporter == null && REPORT_MILLIS > 0) {
+         reporter = new Timer("Metrics-reporter", true);
+         reporter.schedule(new TimerTask() {
+            public void run() { report(); }
+         }, REPORT_MILLIS, REPORT_MILLIS);
+      }
+   }//end start
+
+   /**
+    * Stops the periodic reports after writing a last one.
+    */
+   public synchronized void stop() {
+      if (reporter == null) return;
+      reporter.cancel();
+      reporter = null;
+      report();
+   }
+
+   /*
+    * Writes the figures recorded since the previous report
+    */
+   synchronized void report() {
+      List<Object[]> rows = rows(true);
+      if (rows.isEmpty()) return;
+      if (REPORT_FILE == null) {
+         System.err.println(table(rows) + cacheTable());
+         return;
+      }
+      String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+      File file = new File(REPORT_FILE);
+      boolean header = !file.exists() || file.length() == 0;
+      PrintWriter out = null;
+      try {
+         out = new PrintWriter(new FileWriter(file, true));
+         if (header)
+            out.println("time,kind,name,count,errors,rows,mean_ms,p50_ms,p99_ms,p999_ms,max_ms");
+         for (Object[] row : rows) {
+            Snapshot s = (Snapshot) row[2];
+            out.println(String.format(Locale.US, "%s,%s,\"%s\",%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f",
+               time, row[0], ((String) row[1]).replace("\"", "\"\""), s.getCount(), s.getErrors(), s.getRows(),
+               s.getMeanMillis(), s.getP50Millis(), s.getP99Millis(), s.getP999Millis(), s.getMaxMillis()));
+         }
+      } catch (IOException e) {
+         System.err.println("Metrics report failed: " + e.getMessage());
+      } finally {
+         if (out != null) out.close();
+      }
+   }//end report
+
+   /*
+    * One { kind, name, snapshot } row per histogram, most total time first
+    * within each kind.  With sinceLastReport the snapshots cover the time
+    * since the previous call and empty ones are left out.
+    */
+   private List<Object[]> rows(boolean sinceLastReport) {
+      List<Object[]> rows = new ArrayList<Object[]>();
+      Map<String, Histogram> wait = new HashMap<String, Histogram>();
+      wait.put("wait", connectionWait);
+      addRows(rows, "operation", operations, sinceLastReport);
+      addRows(rows, "connection", wait, sinceLastReport);
+      addRows(rows, "statement", statements, sinceLastReport);
+      return rows;
+   }
+
+   private void addRows(List<Object[]> rows, String kind, Map<String, Histogram> histograms, boolean sinceLastReport) {
+      List<Object[]> kindRows = new ArrayList<Object[]>();
+      for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+         Snapshot s = e.getValue().snapshot();
+         if (sinceLastReport) {
+            String key = kind + "\t" + e.getKey();
+            Snapshot earlier = previous.put(key, s);
+            if (earlier != null) s = s.since(earlier);
+         }
+         if (s.getCount() > 0)
+            kindRows.add(new Object[] { kind, e.getKey(), s });
+      }
+      Collections.sort(kindRows, new Comparator<Object[]>() {
+         public int compare(Object[] a, Object[] b) {
+            return Double.compare(((Snapshot) b[2]).getTotalMillis(), ((Snapshot) a[2]).getTotalMillis());
+         }
+      });
+      rows.addAll(kindRows);
+   }//end addRows
+
+   private String cacheTable() {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, String> e : getCaches().entrySet())
+         sb.append(String.format("%-10s %s  %s%n", "cache", e.getKey(), e.getValue()));
+      return sb.toString();
+   }
+
+   private static String table(List<Object[]> rows) {
+      StringBuilder sb = new StringBuilder(String.format("%-10s %9s %7s %9s %10s %9s %9s %9s %9s  %s%n",
+         "kind", "count", "errors", "rows", "total ms", "mean ms", "p99 ms", "p999 ms", "max ms", "name"));
+      for (Object[] row : rows) {
+         Snapshot s = (Snapshot) row[2];
+         String name = (String) row[1];
+         if (name.length() > 120) name = name.substring(0, 117) + "...";
+         sb.append(String.format(Locale.US, "%-10s %9d %7d %9d %10.1f %9.3f %9.3f %9.3f %9.3f  %s%n",
+            row[0], s.getCount(), s.getErrors(), s.getRows(), s.getTotalMillis(), s.getMeanMillis(),
+            s.getP99Millis(), s.getP999Millis(), s.getMaxMillis(), name));
+      }
+      return sb.toString();
+   }//end table
+}//end Metrics
@@ -0,0 +1,41 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Map;
+
+/**
+ * This interface is the JMX view of Metrics, registered as
+ * "Retail:type=Metrics".  Every figure is cumulative since the start of
+ * the process or the last reset().
+ *
+ */
+public interface MetricsMXBean {
+
+   // latency, rows and errors per RetailService operation
+   Map<String, Metrics.Snapshot> getOperations();
+
+   // latency, rows and errors per SQL statement
+   Map<String, Metrics.Snapshot> getStatements();
+
+   // time spent waiting for a pooled connection
+   Metrics.Snapshot getConnectionWait();
+
+   // entries, hits, misses and invalidations per registered cache
+   Map<String, String> getCaches();
+
+   // the figures above as a text table
+   String dump();
+
+   // starts every figure again from zero
+   void reset();
+}//end MetricsMXBean
@@ -0,0 +1,55 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * This class holds one row of the Orders table, with the name of its store.
+ *
+ */
+public class Order {
+
+   public final int orderNumber;
+   public final int customerId;
+   public final int storeId;
+   public final String storeName;
+   public final String productName;
+   public final int unitsOrdered;
+   public final Timestamp orderTime;
+
+   // maps the orderNumber, customerID, storeID, name, productName, unitsOrdered and orderTime columns
+   public static final RowMapper<Order> MAPPER = new RowMapper<Order>() {
+      public Order map(ResultSet rs) throws SQLException {
+         return new Order(rs.getInt("orderNumber"), rs.getInt("customerID"), rs.getInt("storeID"), rs.getString("name").trim(),
+                          rs.getString("productName").trim(), rs.getInt("unitsOrdered"),
+                          rs.getTimestamp("orderTime"));
+      }
+   };
+
+   public Order(int orderNumber, int customerId, int storeId, String storeName, String productName,
+                int unitsOrdered, Timestamp orderTime) {
+      this.orderNumber = orderNumber;
+      this.customerId = customerId;
+      this.storeId = storeId;
+      this.storeName = storeName;
+      this.productName = productName;
+      this.unitsOrdered = unitsOrdered;
+      this.orderTime = orderTime;
+   }
+
+   public String toString() {
+      return storeId + "\t" + storeName + "\t" + productName + "\t" + unitsOrdered + "\t" + orderTime;
+   }
+}//end Order
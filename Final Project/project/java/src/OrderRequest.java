@@ -0,0 +1,36 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class describes one order submitted through Retail.placeOrders.
+ *
+ */
+public class OrderRequest {
+
+   public final int customerId;
+   public final int storeId;
+   public final String productName;
+   public final int units;
+
+   public OrderRequest(int customerId, int storeId, String productName, int units) {
+      this.customerId = customerId;
+      this.storeId = storeId;
+      this.productName = productName;
+      this.units = units;
+   }
+
+   public String toString() {
+      return String.format("customer=%d store=%d product=%s units=%d",
+                           customerId, storeId, productName, units);
+   }
+}//end OrderRequest
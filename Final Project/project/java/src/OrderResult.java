@@ -0,0 +1,62 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class holds the outcome of placing a single order: either the new
+ * order number and the units left in stock, or the reason it was refused.
+ *
+ */
+public class OrderResult {
+
+   public enum Status {
+      PLACED,
+      INVALID_UNITS,
+      NO_SUCH_STORE,
+      NO_SUCH_CUSTOMER,
+      STORE_TOO_FAR,
+      NO_SUCH_PRODUCT,
+      INSUFFICIENT_STOCK
+   }
+
+   public final Status status;
+
+   // number of the inserted Orders row; -1 unless PLACED
+   public final int orderNumber;
+
+   // units of the product left in the store after the order; -1 if unknown
+   public final int unitsLeft;
+
+   public OrderResult(Status status, int orderNumber, int unitsLeft) {
+      this.status = status;
+      this.orderNumber = orderNumber;
+      this.unitsLeft = unitsLeft;
+   }
+
+   public static OrderResult placed(int orderNumber, int unitsLeft) {
+      return new OrderResult(Status.PLACED, orderNumber, unitsLeft);
+   }
+
+   public static OrderResult refused(Status status, int unitsLeft) {
+      return new OrderResult(status, -1, unitsLeft);
+   }
+
+   public boolean isPlaced() {
+      return status == Status.PLACED;
+   }
+
+   public String toString() {
+      if (isPlaced())
+         return String.format("PLACED order=%d unitsLeft=%d", orderNumber, unitsLeft);
+      return status.name();
+   }
+}//end OrderResult
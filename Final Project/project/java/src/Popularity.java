@@ -0,0 +1,59 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class holds one row of a popularity report: a product of a store, or
+ * a customer, and the number of orders counted for it.
+ *
+ */
+public class Popularity {
+
+   // the store the orders were placed at; -1 when counted over several stores
+   public final int storeId;
+
+   // the customer who placed the orders; -1 for a product
+   public final int customerId;
+
+   // product name, or customer name
+   public final String name;
+
+   public final int numOrders;
+
+   // maps the storeID, productName and numOrders columns
+   public static final RowMapper<Popularity> PRODUCT_MAPPER = new RowMapper<Popularity>() {
+      public Popularity map(ResultSet rs) throws SQLException {
+         return new Popularity(rs.getInt(1), -1, rs.getString(2).trim(), rs.getInt(3));
+      }
+   };
+
+   // maps the customerID, name and numOrders columns
+   public static final RowMapper<Popularity> CUSTOMER_MAPPER = new RowMapper<Popularity>() {
+      public Popularity map(ResultSet rs) throws SQLException {
+         return new Popularity(-1, rs.getInt(1), rs.getString(2).trim(), rs.getInt(3));
+      }
+   };
+
+   public Popularity(int storeId, int customerId, String name, int numOrders) {
+      this.storeId = storeId;
+      this.customerId = customerId;
+      this.name = name;
+      this.numOrders = numOrders;
+   }
+
+   public String toString() {
+      return (customerId >= 0 ? customerId : storeId) + "\t" + name + "\t" + numOrders;
+   }
+}//end Popularity
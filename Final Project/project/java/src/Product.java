@@ -0,0 +1,46 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class holds one row of the Product table.
+ *
+ */
+public class Product {
+
+   public final int storeId;
+   public final String productName;
+   public final int numberOfUnits;
+   public final double pricePerUnit;
+
+   // maps the storeID, productName, numberOfUnits and pricePerUnit columns
+   public static final RowMapper<Product> MAPPER = new RowMapper<Product>() {
+      public Product map(ResultSet rs) throws SQLException {
+         return new Product(rs.getInt("storeID"), rs.getString("productName").trim(),
+                            rs.getInt("numberOfUnits"), rs.getDouble("pricePerUnit"));
+      }
+   };
+
+   public Product(int storeId, String productName, int numberOfUnits, double pricePerUnit) {
+      this.storeId = storeId;
+      this.productName = productName;
+      this.numberOfUnits = numberOfUnits;
+      this.pricePerUnit = pricePerUnit;
+   }
+
+   public String toString() {
+      return productName + "\t" + numberOfUnits + "\t" + pricePerUnit;
+   }
+}//end Product
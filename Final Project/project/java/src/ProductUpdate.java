@@ -0,0 +1,49 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * This class holds one row of the ProductUpdates table.
+ *
+ */
+public class ProductUpdate {
+
+   public final int updateNumber;
+   public final int managerId;
+   public final int storeId;
+   public final String productName;
+   public final Timestamp updatedOn;
+
+   // maps the updateNumber, managerID, storeID, productName and updatedOn columns
+   public static final RowMapper<ProductUpdate> MAPPER = new RowMapper<ProductUpdate>() {
+      public ProductUpdate map(ResultSet rs) throws SQLException {
+         return new ProductUpdate(rs.getInt("updateNumber"), rs.getInt("managerID"), rs.getInt("storeID"),
+                                  rs.getString("productName").trim(), rs.getTimestamp("updatedOn"));
+      }
+   };
+
+   public ProductUpdate(int updateNumber, int managerId, int storeId, String productName, Timestamp updatedOn) {
+      this.updateNumber = updateNumber;
+      this.managerId = managerId;
+      this.storeId = storeId;
+      this.productName = productName;
+      this.updatedOn = updatedOn;
+   }
+
+   public String toString() {
+      return updateNumber + "\t" + managerId + "\t" + storeId + "\t" + productName + "\t" + updatedOn;
+   }
+}//end ProductUpdate
@@ -11,18 +11,32 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.lang.Math;
 
 /**
@@ -32,8 +46,113 @@ import java.lang.Math;
  */
 public class Retail {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections, shared by every session
+   private ConnectionPool _pool = null;
+
+   // true when this instance created the pool and must close it
+   private boolean _ownsPool = false;
+
+   // in-memory grid of store locations; null when the database answers distance queries
+   private StoreIndex _storeIndex = null;
+
+   // typed, thread-safe operations the console menu is a client of
+   private final RetailService _service = new RetailService (this);
+
+   // true when the write flows call the server-side functions instead of sending their statements
+   private boolean _useProcedures = PROCEDURE_MODE;
+
+   // keeps _storeIndex up to date with stores added to the database
+   private Timer _storeIndexRefresher = null;
+
+   // posts stock reservations and verifies the inventory ledger in the background
+   private InventoryReconciler _inventoryJob = null;
+
+   // connection pinned to the current thread while it is inside a transaction
+   private final ThreadLocal<ConnectionPool.PooledConnection> _transaction =
+      new ThreadLocal<ConnectionPool.PooledConnection>();
+
+   // maximum number of prepared statements kept open on each connection
+   static final int STATEMENT_CACHE_SIZE = Integer.getInteger("retail.statementCacheSize", 64);
+
+   // connection pool settings
+   static final int POOL_MAX_SIZE = Integer.getInteger("retail.pool.maxSize", 8);
+   static final int POOL_MIN_IDLE = Integer.getInteger("retail.pool.minIdle", 1);
+   static final long POOL_MAX_WAIT_MILLIS = Long.getLong("retail.pool.maxWaitMillis", 5000L);
+   static final long POOL_IDLE_TIMEOUT_MILLIS = Long.getLong("retail.pool.idleTimeoutMillis", 300000L);
+   // a debugging aid, off by default: every borrow records its caller while it is on
+   static final long POOL_LEAK_THRESHOLD_MILLIS = Long.getLong("retail.pool.leakThresholdMillis", 0L);
+   static final long POOL_VALIDATE_AFTER_MILLIS = Long.getLong("retail.pool.validateAfterMillis", 5000L);
+
+   // radius, in the units of Users/Store latitude and longitude, of the stores a user may see and order from
+   static final int STORE_RADIUS = 30;
+
+   /*
+    * Matches the stores s within STORE_RADIUS of user u.  The bounding box is
+    * answered by store_location_idx, so calculate_distance only runs on the
+    * stores inside the box instead of on every store.
+    */
+   static final String NEAR_STORE_CONDITION =
+      "s.latitude BETWEEN u.latitude - " + STORE_RADIUS + " AND u.latitude + " + STORE_RADIUS + " " +
+      "AND s.longitude BETWEEN u.longitude - " + STORE_RADIUS + " AND u.longitude + " + STORE_RADIUS + " " +
+      "AND calculate_distance(u.latitude, u.longitude, s.latitude, s.longitude) <= " + STORE_RADIUS;
+
+   // set -Dretail.mode=procedures to run the write flows as PL/pgSQL functions, see create_tables.sql
+   static final boolean PROCEDURE_MODE = "procedures".equals (System.getProperty ("retail.mode", "statements"));
+
+   // set -Dretail.storeIndex=true to answer distance checks from an in-memory StoreIndex
+   static final boolean STORE_INDEX_ENABLED = Boolean.getBoolean("retail.storeIndex");
+   static final long STORE_INDEX_REFRESH_MILLIS = Long.getLong("retail.storeIndex.refreshMillis", 60000L);
+
+   // process-wide cache of user roles and locations, shared by every session.  There is no
+   // session-level cache in front of it: the HTTP server shares one session among all its
+   // users, a hit here is only a map lookup, and a per-session copy would miss invalidateUser
+   static final TtlCache<Integer, UserProfile> USER_PROFILES = new TtlCache<Integer, UserProfile>(
+      Long.getLong("retail.userCache.ttlMillis", 60000L), Integer.getInteger("retail.userCache.maxSize", 10000));
+
+   // rows fetched per round trip by streaming queries; 0 reads whole results at once
+   static final int FETCH_SIZE = Integer.getInteger("retail.fetchSize", 1000);
+
+   // cleared when the driver rejects setFetchSize, as the bundled pg73jdbc3 does
+   private static volatile boolean _cursorsSupported = true;
+
+   // attempts made for a write that fails with a serialization failure or deadlock
+   static final int MAX_WRITE_ATTEMPTS = Integer.getInteger("retail.maxWriteAttempts", 3);
+
+   // process-wide latency, row and error figures per operation and per statement
+   static final Metrics METRICS = new Metrics ();
+   static {
+      METRICS.registerCache ("userProfiles", USER_PROFILES);
+   }
+
+   // process-wide log of statements slower than retail.slowQuery.thresholdMillis, with their plans
+   static final SlowQueryLog SLOW_QUERIES = new SlowQueryLog ();
+
+   /*
+    * Places an order in one statement: the Orders row is inserted only if
+    * the store is within 30 miles of the customer and has enough units.  The
+    * orders_stock trigger then takes the units and records the movement,
+    * re-checking the stock under its lock, so the product can never be
+    * oversold; when a concurrent order took the units first it refuses the
+    * order with check_violation.
+    */
+   private static final String PLACE_ORDER_SQL =
+      "WITH stock AS (" +
+      " SELECT p.storeID, p.productName, p.numberOfUnits FROM PRODUCTSTOCK p" +
+      " WHERE p.storeID = ? AND p.productName = ? AND p.numberOfUnits >= ?" +
+      " AND EXISTS (SELECT 1 FROM STORE s, USERS u WHERE s.storeID = p.storeID AND u.userID = ?" +
+      " AND " + NEAR_STORE_CONDITION + ")), " +
+      "placed AS (" +
+      " INSERT INTO ORDERS (customerID, storeID, productName, unitsOrdered, orderTime)" +
+      " SELECT ?, storeID, productName, ?, CURRENT_TIMESTAMP FROM stock" +
+      " RETURNING orderNumber) " +
+      "SELECT placed.orderNumber, stock.numberOfUnits - ? FROM placed, stock";
+
+   // explains why PLACE_ORDER_SQL placed nothing; always one row, so a missing store, customer or product shows as NULL
+   private static final String ORDER_REFUSAL_SQL =
+      "SELECT s.storeID, u.userID, CASE WHEN s.storeID IS NOT NULL AND u.userID IS NOT NULL " +
+      "THEN calculate_distance(u.latitude, u.longitude, s.latitude, s.longitude) END, p.numberOfUnits " +
+      "FROM (SELECT 1) one LEFT JOIN STORE s ON s.storeID = ? LEFT JOIN USERS u ON u.userID = ? " +
+      "LEFT JOIN PRODUCTSTOCK p ON p.storeID = s.storeID AND p.productName = ?";
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -53,6 +172,21 @@ public class Retail {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public Retail(String dbname, String dbport, String user, String passwd) throws SQLException {
+      this(dbname, dbport, user, passwd, POOL_MAX_SIZE, true);
+   }//end Retail
+
+   /**
+    * Creates a new instance of Retail shop with a connection pool of its own
+    * size, and optionally without the background jobs: the inventory job,
+    * the metrics reports and the store index.  Tools that change the tables
+    * under those jobs, such as BulkLoader, turn them off.
+    *
+    * @param poolSize the most connections the pool opens
+    * @param backgroundJobs false to start none of the background jobs
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public Retail(String dbname, String dbport, String user, String passwd,
+                 int poolSize, boolean backgroundJobs) throws SQLException {
       this.userId = "-1";
 
       System.out.print("Connecting to database...");
@@ -61,9 +195,26 @@ public class Retail {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the connection pool
+         this._pool = new ConnectionPool(url, user, passwd, poolSize, POOL_MIN_IDLE,
+                                         POOL_MAX_WAIT_MILLIS, POOL_IDLE_TIMEOUT_MILLIS,
+                                         POOL_LEAK_THRESHOLD_MILLIS, POOL_VALIDATE_AFTER_MILLIS,
+                                         STATEMENT_CACHE_SIZE, Connection.TRANSACTION_READ_COMMITTED);
+         this._ownsPool = true;
+         if (backgroundJobs) {
+            METRICS.start ();
+            this._inventoryJob = new InventoryReconciler (this);
+            this._inventoryJob.start ();
+         }//end if
          System.out.println("Done");
+
+         if (backgroundJobs && STORE_INDEX_ENABLED) {
+            System.out.print("Loading store index...");
+            StoreIndex index = new StoreIndex (STORE_RADIUS);
+            index.load (this);
+            setStoreIndex (index);
+            System.out.println("Done (" + index.size () + " stores)");
+         }//end if
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
@@ -71,6 +222,268 @@ public class Retail {
       }//end catch
    }//end Retail
 
+   /**
+    * Creates a new Retail session on top of an existing connection pool, so
+    * that many concurrent sessions can share the connections of one JVM.
+    *
+    * @param pool the shared connection pool; it is not closed by cleanup()
+    */
+   public Retail(ConnectionPool pool) {
+      this.userId = "-1";
+      this._pool = pool;
+      this._ownsPool = false;
+   }//end Retail
+
+   /**
+    * Method to answer distance checks from an in-memory store index instead
+    * of the database.  The index is reloaded in the background, so stores
+    * added, moved or deleted show up within retail.storeIndex.refreshMillis;
+    * placing an order still checks the distance against Store itself.
+    * Sessions sharing a pool may share one index.
+    *
+    * @param index the loaded index, or null to go back to database lookups
+    */
+   public void setStoreIndex (final StoreIndex index) {
+      if (this._storeIndexRefresher != null) {
+         this._storeIndexRefresher.cancel ();
+         this._storeIndexRefresher = null;
+      }
+      this._storeIndex = index;
+      if (index == null || !this._ownsPool) return;
+      this._storeIndexRefresher = new Timer ("StoreIndex-refresher", true);
+      this._storeIndexRefresher.schedule (new TimerTask () {
+         public void run () {
+            try {
+               index.refresh (Retail.this);
+            } catch (SQLException e) {
+               System.err.println ("Store index refresh failed: " + e.getMessage ());
+            }
+         }
+      }, STORE_INDEX_REFRESH_MILLIS, STORE_INDEX_REFRESH_MILLIS);
+   }//end setStoreIndex
+
+   public StoreIndex getStoreIndex () {
+      return this._storeIndex;
+   }
+
+   /**
+    * Method to count the pooled connections this session's background jobs
+    * may hold at once: one each for the inventory job, the store index
+    * refresher and the slow query explainer, when they run.
+    *
+    * @return the number of connections to keep free for them
+    */
+   public int getBackgroundConnections () {
+      int jobs = 0;
+      if (this._inventoryJob != null && this._inventoryJob.isRunning ()) jobs++;
+      if (this._storeIndexRefresher != null) jobs++;
+      if (SlowQueryLog.EXPLAIN && SlowQueryLog.THRESHOLD_MILLIS >= 0) jobs++;
+      return jobs;
+   }
+
+   /**
+    * Method to choose how the write flows (placeOrder, updateProduct and
+    * placeSupplyRequest) run: as one call of a PL/pgSQL function each, or
+    * as statements sent from here.
+    *
+    * @param useProcedures true to call place_order, update_product and place_supply_request
+    */
+   public void setUseProcedures (boolean useProcedures) {
+      this._useProcedures = useProcedures;
+   }
+
+   public boolean usesProcedures () {
+      return this._useProcedures;
+   }
+
+   /**
+    * Method to look up the role and location of a user.  Profiles are read
+    * through USER_PROFILES, so repeated lookups cost no round trip until
+    * the entry expires or is invalidated.
+    *
+    * @param userId the user to look up
+    * @return the user's profile, or null if the user does not exist
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public UserProfile getUserProfile (int userId) throws SQLException {
+      UserProfile profile = USER_PROFILES.get (userId);
+      if (profile != null) return profile;
+
+      long generation = USER_PROFILES.generation ();
+      profile = executeQueryForObject (
+         "SELECT userID, name, latitude, longitude, type FROM USERS WHERE userID = ?", UserProfile.MAPPER, userId);
+      if (profile == null) return null;
+      USER_PROFILES.put (userId, profile, generation);
+      return profile;
+   }//end getUserProfile
+
+   /**
+    * Method to drop a user's cached profile after the Users row changed.
+    */
+   public static void invalidateUser (int userId) {
+      USER_PROFILES.invalidate (userId);
+   }
+
+   /**
+    * Method to look up every store a manager runs.  It is read from Store
+    * on every call, so a store just given to a manager shows up at once.
+    *
+    * @param managerId the manager to look up
+    * @return the IDs of the manager's stores, in ascending order; empty if none
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<Integer> getManagedStores (int managerId) throws SQLException {
+      return executeQueryForList (
+         "SELECT storeID FROM STORE WHERE managerID = ? ORDER BY storeID", RowMapper.INTEGER, managerId);
+   }//end getManagedStores
+
+   /**
+    * Builds the condition that a store column belongs to the manager bound
+    * to its ?.  It reads Store in the report's own query, so a report
+    * never shows a store its manager has just been moved away from.
+    */
+   static String managedBy (String storeColumn) {
+      return storeColumn + " IN (SELECT storeID FROM STORE WHERE managerID = ?)";
+   }
+
+   /**
+    * Method to look up the location of a user.
+    *
+    * @param userId the user to look up
+    * @return { latitude, longitude }, or null if the user does not exist
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public double[] getUserLocation (int userId) throws SQLException {
+      UserProfile profile = getUserProfile (userId);
+      if (profile == null) return null;
+      return new double[] { profile.latitude, profile.longitude };
+   }//end getUserLocation
+
+   /**
+    * Method to find the stores a user may order from, nearest first.  Uses
+    * the store index when one is set.
+    *
+    * @param userId the user to search around
+    * @return the stores within STORE_RADIUS of the user
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<Store> findStoresNear (int userId) throws SQLException {
+      StoreIndex index = this._storeIndex;
+      if (index != null) {
+         double[] location = getUserLocation (userId);
+         if (location == null) return new ArrayList<Store>();
+         return index.within (location[0], location[1], STORE_RADIUS);
+      }
+      return readStores ("SELECT s.storeID, s.name, s.latitude, s.longitude, s.managerID, s.dateEstablished " +
+                         "FROM STORE s, USERS u WHERE u.userID = ? AND " + NEAR_STORE_CONDITION + " " +
+                         "ORDER BY calculate_distance(u.latitude, u.longitude, s.latitude, s.longitude)", userId);
+   }//end findStoresNear
+
+   /**
+    * Method to find the k stores nearest to a user, whatever their distance.
+    * Uses the store index when one is set.
+    *
+    * @param userId the user to search around
+    * @param k the number of stores to return
+    * @return up to k stores, nearest first
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<Store> findNearestStores (int userId, int k) throws SQLException {
+      StoreIndex index = this._storeIndex;
+      if (index != null) {
+         double[] location = getUserLocation (userId);
+         if (location == null) return new ArrayList<Store>();
+         return index.nearest (location[0], location[1], k);
+      }
+      return readStores ("SELECT s.storeID, s.name, s.latitude, s.longitude, s.managerID, s.dateEstablished " +
+                         "FROM STORE s, USERS u WHERE u.userID = ? " +
+                         "ORDER BY calculate_distance(u.latitude, u.longitude, s.latitude, s.longitude) LIMIT ?", userId, k);
+   }//end findNearestStores
+
+   /**
+    * Method to run a query selecting storeID, name, latitude, longitude,
+    * managerID and dateEstablished, in that order, and return the stores.
+    */
+   List<Store> readStores (String query, Object... params) throws SQLException {
+      return executeQueryForList (query, Store.MAPPER, params);
+   }
+
+   /**
+    * Method to list the products of a store.
+    *
+    * @param storeId the store to list
+    * @return the store's products, ordered by name
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<Product> findProducts (int storeId) throws SQLException {
+      return executeQueryForList ("SELECT storeID, productName, numberOfUnits, pricePerUnit FROM PRODUCTSTOCK " +
+                                  "WHERE storeID = ? ORDER BY productName", Product.MAPPER, storeId);
+   }//end findProducts
+
+   /**
+    * Method to list a customer's most recent orders.
+    *
+    * @param customerId the customer whose orders to list
+    * @param limit the maximum number of orders returned
+    * @return the orders, most recent first
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<Order> findRecentOrders (int customerId, int limit) throws SQLException {
+      return executeQueryForList ("SELECT o.orderNumber, o.customerID, o.storeID, s.name, o.productName, o.unitsOrdered, o.orderTime " +
+                                  "FROM ORDERS o, STORE s WHERE o.customerID = ? AND o.storeID = s.storeID " +
+                                  "ORDER BY o.orderTime DESC LIMIT ?", Order.MAPPER, customerId, limit);
+   }//end findRecentOrders
+
+   /**
+    * Method to check a name and password.  The profile of the user is put
+    * in USER_PROFILES, so the session's role checks need no round trip.
+    *
+    * @param name the user name
+    * @param password the user's password
+    * @return the user's profile, or null if no user has that name and password
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public UserProfile logIn (String name, String password) throws SQLException {
+      long generation = USER_PROFILES.generation ();
+      UserProfile profile = executeQueryForObject (
+         "SELECT userID, name, latitude, longitude, type FROM USERS WHERE name = ? AND password = ?",
+         UserProfile.MAPPER, name, password);
+      if (profile != null) USER_PROFILES.put (profile.userId, profile, generation);
+      return profile;
+   }//end logIn
+
+   /**
+    * Method to list the most ordered products of a manager's stores, from
+    * the counters kept by the orders_popularity trigger.
+    *
+    * @param managerId the manager whose stores to report on
+    * @param limit the maximum number of products returned
+    * @return the products, most ordered first; empty if the manager runs no store
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<Popularity> findPopularProducts (int managerId, int limit) throws SQLException {
+      return executeQueryForList ("SELECT storeID, productName, numOrders FROM PRODUCTPOPULARITY " +
+                                  "WHERE " + managedBy ("storeID") + " ORDER BY numOrders DESC LIMIT ?",
+                                  Popularity.PRODUCT_MAPPER, managerId, limit);
+   }//end findPopularProducts
+
+   /**
+    * Method to list the customers with the most orders at a manager's
+    * stores, from the counters kept by the orders_popularity trigger.
+    *
+    * @param managerId the manager whose stores to report on
+    * @param limit the maximum number of customers returned
+    * @return the customers, most orders first; empty if the manager runs no store
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<Popularity> findPopularCustomers (int managerId, int limit) throws SQLException {
+      // a customer's orders are spread over the manager's stores, so add them up
+      return executeQueryForList ("SELECT p.customerID, u.name, SUM(p.numOrders) FROM CUSTOMERPOPULARITY p, USERS u " +
+                                  "WHERE " + managedBy ("p.storeID") + " AND p.customerID = u.userID " +
+                                  "GROUP BY p.customerID, u.name ORDER BY SUM(p.numOrders) DESC LIMIT ?",
+                                  Popularity.CUSTOMER_MAPPER, managerId, limit);
+   }//end findPopularCustomers
+
    // Method to calculate euclidean distance between two latitude, longitude pairs. 
    public double calculateDistance (double lat1, double long1, double lat2, double long2){
       double t1 = (lat1 - lat2) * (lat1 - lat2);
@@ -78,158 +491,831 @@ public class Retail {
       return Math.sqrt(t1 + t2); 
    }
 
+   /**
+    * Places an order as a single atomic statement run at READ COMMITTED, so
+    * the common case costs one round trip.  The statement is retried when it
+    * fails with a serialization failure or a deadlock.  The units left are
+    * the stock the order saw less its own units.
+    *
+    * @param customerId the user placing the order
+    * @param storeId the store to order from
+    * @param productName the product to order
+    * @param units the number of units to order
+    * @return the new order number, or why the order was refused
+    * @throws java.sql.SQLException when the order fails for any other reason
+    */
+   public OrderResult placeOrder (int customerId, int storeId, String productName, int units) throws SQLException {
+      if (units <= 0)
+         return OrderResult.refused (OrderResult.Status.INVALID_UNITS, -1);
+      if (this._useProcedures)
+         return callPlaceOrder (customerId, storeId, productName, units);
+
+      // the distance is always checked by the statement against Store itself: the
+      // StoreIndex may not have seen a store move or close yet
+      for (int attempt = 1; ; ++attempt) {
+         try {
+            OrderResult placed = executeQueryForObject (PLACE_ORDER_SQL, ORDER_PLACED,
+                                                        storeId, productName, units, customerId,
+                                                        customerId, units, units);
+            if (placed != null) return placed;
+            break;
+         } catch (SQLException e) {
+            // a concurrent order took the units first; the query below reports what is left
+            if (isStockShortage (e)) break;
+            if (attempt >= MAX_WRITE_ATTEMPTS || !isRetryable (e)) throw e;
+         }
+      }//end for
+
+      // nothing was placed; a second, read-only query tells the caller why
+      return executeQueryForObject (ORDER_REFUSAL_SQL, ORDER_REFUSED, storeId, customerId, productName);
+   }//end placeOrder
+
+   /*
+    * Places an order with one call of the place_order function, which
+    * checks the distance and the stock and makes the change atomically
+    */
+   private OrderResult callPlaceOrder (int customerId, int storeId, String productName, int units) throws SQLException {
+      for (int attempt = 1; ; ++attempt) {
+         try {
+            return executeQueryForObject ("SELECT status, order_number, units_left FROM place_order(?, ?, ?, ?)",
+                                          ORDER_CALLED, customerId, storeId, productName, units);
+         } catch (SQLException e) {
+            if (attempt >= MAX_WRITE_ATTEMPTS || !isRetryable (e)) throw e;
+         }
+      }//end for
+   }//end callPlaceOrder
+
+   // maps the (status, order_number, units_left) row returned by the place_order function
+   private static final RowMapper<OrderResult> ORDER_CALLED = new RowMapper<OrderResult> () {
+      public OrderResult map (ResultSet rs) throws SQLException {
+         return new OrderResult (OrderResult.Status.valueOf (rs.getString (1)), rs.getInt (2), rs.getInt (3));
+      }
+   };
+
+   // maps the (orderNumber, numberOfUnits) row returned by PLACE_ORDER_SQL
+   private static final RowMapper<OrderResult> ORDER_PLACED = new RowMapper<OrderResult> () {
+      public OrderResult map (ResultSet rs) throws SQLException {
+         return OrderResult.placed (rs.getInt (1), rs.getInt (2));
+      }
+   };
+
+   // maps the (storeID, userID, distance, numberOfUnits) row returned by ORDER_REFUSAL_SQL,
+   // checked in the same order as the place_order function
+   private static final RowMapper<OrderResult> ORDER_REFUSED = new RowMapper<OrderResult> () {
+      public OrderResult map (ResultSet rs) throws SQLException {
+         rs.getInt (1);
+         if (rs.wasNull ())
+            return OrderResult.refused (OrderResult.Status.NO_SUCH_STORE, -1);
+         rs.getInt (2);
+         if (rs.wasNull ())
+            return OrderResult.refused (OrderResult.Status.NO_SUCH_CUSTOMER, -1);
+         if (rs.getDouble (3) > STORE_RADIUS)
+            return OrderResult.refused (OrderResult.Status.STORE_TOO_FAR, -1);
+         int unitsLeft = rs.getInt (4);
+         if (rs.wasNull ())
+            return OrderResult.refused (OrderResult.Status.NO_SUCH_PRODUCT, -1);
+         return OrderResult.refused (OrderResult.Status.INSUFFICIENT_STOCK, unitsLeft);
+      }
+   };
+
+   /**
+    * Places a batch of orders in one READ COMMITTED transaction.  The
+    * customers and stores of the whole batch are checked with one query and
+    * the stock of every product involved is read and locked with another.
+    * The Orders rows are then inserted with JDBC batching, and the
+    * orders_stock trigger takes their units from the stock; nothing updates
+    * Product from here.  Orders that cannot be filled are refused
+    * individually without affecting the rest of the batch; stock is handed
+    * out in list order, and each placed order reports the units left right
+    * after it, as if the orders had been placed one by one.  The batch is run
+    * again when a reservation made after the stock was read leaves the
+    * trigger short.
+    *
+    * @param requests the orders to place
+    * @return one result per request, in the same order
+    * @throws java.sql.SQLException when the batch fails as a whole; nothing is placed then
+    */
+   public List<OrderResult> placeOrders (List<OrderRequest> requests) throws SQLException {
+      for (int attempt = 1; ; ++attempt) {
+         beginTransaction (Connection.TRANSACTION_READ_COMMITTED);
+         try {
+            List<OrderResult> results = placeOrdersInTransaction (requests);
+            commit ();
+            return results;
+         } catch (SQLException e) {
+            rollback ();
+            if (attempt >= MAX_WRITE_ATTEMPTS || !(isRetryable (e) || isStockShortage (e))) throw e;
+         }
+      }//end for
+   }//end placeOrders
+
+   private List<OrderResult> placeOrdersInTransaction (List<OrderRequest> requests) throws SQLException {
+      List<OrderResult> results = new ArrayList<OrderResult>(requests.size ());
+      if (requests.isEmpty ()) return results;
+
+      // distinct (customer, store) pairs and (store, product) keys of the batch
+      Map<String, Object[]> pairs = new LinkedHashMap<String, Object[]>();
+      Map<Integer, Object[]> stores = new LinkedHashMap<Integer, Object[]>();
+      Map<String, Object[]> products = new TreeMap<String, Object[]>();
+      for (OrderRequest r : requests) {
+         pairs.put (r.customerId + "|" + r.storeId, new Object[] { r.customerId, r.storeId });
+         stores.put (r.storeId, new Object[] { r.storeId });
+         products.put (productKey (r.storeId, r.productName), new Object[] { r.storeId, r.productName.trim () });
+      }
+
+      // the stores that exist, and the distance from each customer to each store they order from;
+      // a store none of whose customers exist comes back once, without a customer
+      final Set<Integer> storesFound = new HashSet<Integer>();
+      final Map<String, Double> distances = new HashMap<String, Double>();
+      String pairSql = "SELECT s.storeID, u.userID, calculate_distance(u.latitude, u.longitude, s.latitude, s.longitude) " +
+                       "FROM STORE s LEFT JOIN USERS u ON (u.userID, s.storeID) IN (" + tupleList (pairs.size (), 2) + ") " +
+                       "WHERE s.storeID IN (" + tupleList (stores.size (), 1) + ")";
+      Object[] pairParams = tupleParams (pairs.values (), 2);
+      Object[] storeParams = tupleParams (stores.values (), 1);
+      Object[] params = Arrays.copyOf (pairParams, pairParams.length + storeParams.length);
+      System.arraycopy (storeParams, 0, params, pairParams.length, storeParams.length);
+      executeQueryForEach (pairSql, new RowHandler () {
+         public void handle (ResultSet rs) throws SQLException {
+            storesFound.add (rs.getInt (1));
+            int customerId = rs.getInt (2);
+            if (!rs.wasNull ())
+               distances.put (customerId + "|" + rs.getInt (1), rs.getDouble (3));
+         }
+      }, params);
+
+      // current stock of every product, locked in key order so concurrent batches cannot deadlock;
+      // this is PRODUCTSTOCK spelled out, so that a row re-read after a lock wait counts
+      final Map<String, Integer> stock = new HashMap<String, Integer>();
+      String stockSql = "SELECT p.storeID, p.productName, p.numberOfUnits + COALESCE((SELECT SUM(t.units) " +
+                        "FROM PRODUCTSTRIPES t WHERE t.storeID = p.storeID AND t.productName = p.productName), 0) " +
+                        "- COALESCE((SELECT SUM(r.units) " +
+                        "FROM STOCKRESERVATIONS r WHERE r.storeID = p.storeID AND r.productName = p.productName), 0) " +
+                        "FROM PRODUCT p WHERE (p.storeID, p.productName) IN (" + tupleList (products.size (), 2) + ") " +
+                        "ORDER BY p.storeID, p.productName FOR NO KEY UPDATE";
+      executeQueryForEach (stockSql, new RowHandler () {
+         public void handle (ResultSet rs) throws SQLException {
+            stock.put (productKey (rs.getInt (1), rs.getString (2)), rs.getInt (3));
+         }
+      }, tupleParams (products.values (), 2));
+
+      // hand out stock in list order, noting what each accepted order leaves
+      List<OrderRequest> accepted = new ArrayList<OrderRequest>();
+      List<Integer> unitsLeft = new ArrayList<Integer>();
+      for (OrderRequest r : requests) {
+         String key = productKey (r.storeId, r.productName);
+         Integer available = stock.get (key);
+         Double distance = distances.get (r.customerId + "|" + r.storeId);
+         OrderResult.Status refusal = null;
+         // checked in the same order as placeOrder and the place_order function
+         if (r.units <= 0) refusal = OrderResult.Status.INVALID_UNITS;
+         else if (!storesFound.contains (r.storeId)) refusal = OrderResult.Status.NO_SUCH_STORE;
+         else if (distance == null) refusal = OrderResult.Status.NO_SUCH_CUSTOMER;
+         else if (distance > STORE_RADIUS) refusal = OrderResult.Status.STORE_TOO_FAR;
+         else if (available == null) refusal = OrderResult.Status.NO_SUCH_PRODUCT;
+         else if (available < r.units) refusal = OrderResult.Status.INSUFFICIENT_STOCK;
+
+         if (refusal != null) {
+            results.add (OrderResult.refused (refusal, available == null ? -1 : available));
+            continue;
+         }
+         stock.put (key, available - r.units);
+         accepted.add (r);
+         unitsLeft.add (available - r.units);
+         results.add (null);
+      }//end for
+      if (accepted.isEmpty ()) return results;
+
+      // reserve the order numbers up front so they can be reported back
+      List<Integer> numbers = executeQueryForList (
+         "SELECT nextval('orders_ordernumber_seq') FROM generate_series(1, ?)", RowMapper.INTEGER, accepted.size ());
+
+      List<Object[]> inserts = new ArrayList<Object[]>(accepted.size ());
+      for (int i = 0, j = 0; i < results.size (); ++i) {
+         if (results.get (i) != null) continue;
+         OrderRequest r = requests.get (i);
+         int orderNumber = numbers.get (j);
+         inserts.add (new Object[] { orderNumber, r.customerId, r.storeId, r.productName, r.units });
+         results.set (i, OrderResult.placed (orderNumber, unitsLeft.get (j++)));
+      }
+      executeBatch ("INSERT INTO ORDERS (orderNumber, customerID, storeID, productName, unitsOrdered, orderTime) " +
+                    "VALUES (?, ?, ?, ?, ?, CURRENT_TIMESTAMP)", inserts);
+      return results;
+   }//end placeOrdersInTransaction
+
+   // key of a product in a store; char(30) product names come back blank padded
+   private static String productKey (int storeId, String productName) {
+      return storeId + "|" + productName.trim ();
+   }
+
+   /*
+    * Builds "(?, ?), (?, ?), ..." for an IN list of tuples.  The number of
+    * tuples is rounded up to a power of two so that batches of similar size
+    * share one cached statement; tupleParams pads with the last tuple.
+    */
+   private static String tupleList (int tuples, int width) {
+      StringBuilder tuple = new StringBuilder ("(");
+      for (int i = 0; i < width; ++i)
+         tuple.append (i == 0 ? "?" : ", ?");
+      tuple.append (")");
+      StringBuilder list = new StringBuilder ();
+      for (int i = 0; i < paddedSize (tuples); ++i) {
+         if (i > 0) list.append (", ");
+         list.append (tuple);
+      }
+      return list.toString ();
+   }
+
+   private static Object[] tupleParams (Collection<Object[]> tuples, int width) {
+      Object[] params = new Object[paddedSize (tuples.size ()) * width];
+      Object[] last = null;
+      int i = 0;
+      for (Object[] tuple : tuples) {
+         System.arraycopy (tuple, 0, params, i, width);
+         i += width;
+         last = tuple;
+      }
+      for (; i < params.length; i += width)
+         System.arraycopy (last, 0, params, i, width);
+      return params;
+   }
+
+   private static int paddedSize (int n) {
+      int size = 1;
+      while (size < n) size <<= 1;
+      return size;
+   }
+
+   /**
+    * Method to recompute the ProductPopularity and CustomerPopularity
+    * counters from Orders, e.g. after a bulk load with the trigger disabled.
+    *
+    * @throws java.sql.SQLException when the rebuild fails; the counters are left unchanged then
+    */
+   public void rebuildPopularity () throws SQLException {
+      beginTransaction (Connection.TRANSACTION_READ_COMMITTED);
+      try {
+         // keeps new orders from changing the counters while they are rebuilt
+         executeUpdate ("LOCK TABLE ORDERS IN SHARE MODE");
+         executeQueryForObject ("SELECT rebuild_popularity()", RowMapper.STRING);
+         commit ();
+      } catch (SQLException e) {
+         rollback ();
+         throw e;
+      }
+   }//end rebuildPopularity
+
+   /**
+    * Method to split the stock of a hot product over several ProductStripes
+    * rows, so that up to that many of its orders take their units at once
+    * instead of queueing for one Product row.  Listings and order checks
+    * read the sum of the stripes through PRODUCTSTOCK.
+    *
+    * @param storeId the store selling the product
+    * @param productName the product to stripe
+    * @param stripes the number of stripes, or 0 to keep the stock in Product again
+    * @throws java.sql.SQLException when there is no such product
+    */
+   public void stripeProduct (int storeId, String productName, int stripes) throws SQLException {
+      executeQueryForObject ("SELECT stripe_product(?, ?, ?)", RowMapper.STRING, storeId, productName, stripes);
+   }//end stripeProduct
+
+   /**
+    * Method to start the InventoryMovements ledger again from the current
+    * stock, e.g. after a bulk load with the triggers disabled.
+    *
+    * @throws java.sql.SQLException when the rebuild fails; the ledger is left unchanged then
+    */
+   public void rebuildInventory () throws SQLException {
+      beginTransaction (Connection.TRANSACTION_READ_COMMITTED);
+      try {
+         // keeps orders, supply requests and updates from moving the stock while the ledger is rebuilt
+         executeUpdate ("LOCK TABLE PRODUCT, PRODUCTSTRIPES, STOCKRESERVATIONS IN SHARE MODE");
+         executeQueryForObject ("SELECT rebuild_inventory()", RowMapper.STRING);
+         commit ();
+      } catch (SQLException e) {
+         rollback ();
+         throw e;
+      }
+   }//end rebuildInventory
+
+   /**
+    * Checks whether a failed statement may succeed when simply run again,
+    * i.e. it was a serialization failure or was chosen as a deadlock victim.
+    *
+    * @param e the exception thrown by the statement
+    * @return true if the statement should be retried
+    */
+   public static boolean isRetryable (SQLException e) {
+      String state = e.getSQLState ();
+      if ("40001".equals (state) || "40P01".equals (state)) return true;
+      // older drivers do not report the SQL state
+      String message = e.getMessage ();
+      return message != null && (message.contains ("could not serialize") || message.contains ("deadlock detected"));
+   }//end isRetryable
+
+   /**
+    * Checks whether a failed statement was an order refused by the
+    * orders_stock trigger because the stock could not fill it.
+    *
+    * @param e the exception thrown by the statement
+    * @return true if the stock ran short
+    */
+   public static boolean isStockShortage (SQLException e) {
+      if ("23514".equals (e.getSQLState ())) return true;
+      String message = e.getMessage ();
+      return message != null && message.contains ("insufficient stock");
+   }//end isStockShortage
+
+   /**
+    * Method to borrow a connection from the pool for one statement.  Inside
+    * a transaction the connection pinned by beginTransaction() is used.
+    *
+    * @return the borrowed connection; hand it back with release()
+    * @throws java.sql.SQLException when no connection becomes available
+    */
+   private ConnectionPool.PooledConnection acquire () throws SQLException {
+      ConnectionPool.PooledConnection pinned = this._transaction.get ();
+      if (pinned != null) return pinned;
+      long start = System.nanoTime ();
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      METRICS.recordConnectionWait (System.nanoTime () - start);
+      return conn;
+   }//end acquire
+
+   /**
+    * Method to return a connection borrowed with acquire().  The pinned
+    * connection of a transaction stays with the thread until it ends.
+    *
+    * @param conn the borrowed connection
+    */
+   private void release (ConnectionPool.PooledConnection conn) {
+      if (conn != this._transaction.get ())
+         this._pool.release (conn);
+   }//end release
+
+   /*
+    * Drops the cached statement of a failed SQL string before the connection
+    * is released, since it may no longer match the schema, e.g. after DDL.
+    * A conflict over the data, such as a shortage or a deadlock, leaves the
+    * statement usable and keeps it.
+    */
+   private SQLException failed (ConnectionPool.PooledConnection conn, String sql, SQLException e) {
+      if (!isRetryable (e) && !isStockShortage (e))
+         conn.statements.invalidate (sql);
+      return e;
+   }
+
+   /**
+    * Method to start a transaction on the current thread.  Every statement
+    * the thread issues runs on the same connection until commit() or
+    * rollback() is called.
+    *
+    * @param isolation the java.sql.Connection isolation level to use
+    * @throws java.sql.SQLException when a transaction is already open or no connection is available
+    */
+   public void beginTransaction (int isolation) throws SQLException {
+      if (this._transaction.get () != null)
+         throw new SQLException ("A transaction is already in progress");
+      long start = System.nanoTime ();
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      METRICS.recordConnectionWait (System.nanoTime () - start);
+      try {
+         conn.setIsolation (isolation);
+         conn.connection.setAutoCommit (false);
+      } catch (SQLException e) {
+         this._pool.destroy (conn);
+         throw e;
+      }
+      this._transaction.set (conn);
+   }//end beginTransaction
+
+   /**
+    * Method to commit the transaction of the current thread.
+    *
+    * @throws java.sql.SQLException when the commit fails; the transaction is then rolled back
+    */
+   public void commit () throws SQLException {
+      ConnectionPool.PooledConnection conn = this._transaction.get ();
+      if (conn == null)
+         throw new SQLException ("No transaction in progress");
+      try {
+         conn.connection.commit ();
+      } finally {
+         this._transaction.remove ();
+         this._pool.release (conn);
+      }
+   }//end commit
+
+   /**
+    * Method to roll back the transaction of the current thread, if any.
+    */
+   public void rollback () {
+      ConnectionPool.PooledConnection conn = this._transaction.get ();
+      if (conn == null) return;
+      this._transaction.remove ();
+      // the pool rolls back connections returned inside a transaction
+      this._pool.release (conn);
+   }//end rollback
+
+   /**
+    * Method to fetch the cached prepared statement for an SQL string and
+    * bind the positional parameters to it.
+    *
+    * @param conn the connection to prepare the statement on
+    * @param sql the SQL string, using ? for each parameter
+    * @param params the values bound to the ? placeholders, in order
+    * @return the prepared statement, ready to execute
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   private PreparedStatement prepare (ConnectionPool.PooledConnection conn, String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = conn.statements.prepare (sql);
+      stmt.clearParameters ();
+      for (int i = 0; i < params.length; ++i) {
+         if (params[i] == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else
+            stmt.setObject (i + 1, params[i]);
+      }
+      return stmt;
+   }//end prepare
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL string, using ? for each parameter
+    * @param params the values bound to the ? placeholders, in order
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      try {
+         // fetches the cached statement and binds the parameters
+         PreparedStatement stmt = prepare (conn, sql, params);
+
+         // issues the update instruction
+         rows = stmt.executeUpdate ();
+         return rows;
+      } catch (SQLException e) {
+         throw failed (conn, sql, e);
+      } finally {
+         release (conn);
+         finished (sql, params, start, rows);
+      }
+   }//end executeUpdate
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   /**
+    * Method to execute one update SQL statement for many parameter rows
+    * using JDBC batching, so the rows travel to the DBMS together.
+    *
+    * @param sql the input SQL string, using ? for each parameter
+    * @param rows one array of parameter values per execution
+    * @return the number of rows affected by each execution
+    * @throws java.sql.SQLException when update failed
+    */
+   public int[] executeBatch (String sql, List<Object[]> rows) throws SQLException {
+      if (rows.isEmpty ()) return new int[0];
+      ConnectionPool.PooledConnection conn = acquire ();
+      long start = System.nanoTime ();
+      long affected = -1;
+      try {
+         PreparedStatement stmt = null;
+         for (Object[] row : rows) {
+            stmt = prepare (conn, sql, row);
+            stmt.addBatch ();
+         }
+         int[] counts = stmt.executeBatch ();
+         affected = 0;
+         for (int count : counts)
+            if (count > 0) affected += count;
+         return counts;
+      } catch (SQLException e) {
+         throw failed (conn, sql, e);
+      } finally {
+         release (conn);
+         finished (sql, null, start, affected);
+      }
+   }//end executeBatch
 
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+    * each row to a callback as it arrives.  Outside a transaction the query
+    * runs with autocommit off and FETCH_SIZE set, so the driver reads the
+    * result through a server-side cursor FETCH_SIZE rows at a time and
+    * memory use does not depend on the size of the result.  With a
+    * FETCH_SIZE of 0, or a driver that cannot fetch through a cursor, the
+    * whole result is read at once and then handed over row by row.
+    *
+    * @param query the input query string, using ? for each parameter
+    * @param handler receives every row, in order
+    * @param params the values bound to the ? placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryForEach (String query, RowHandler handler, Object... params) throws SQLException {
+      boolean cursor = FETCH_SIZE > 0 && _cursorsSupported && this._transaction.get () == null;
+      ConnectionPool.PooledConnection conn = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      PreparedStatement stmt = null;
+      ResultSet rs = null;
+      try {
+         // fetches the cached statement and binds the parameters
+         stmt = prepare (conn, query, params);
+         if (cursor) {
+            try {
+               stmt.setFetchSize (FETCH_SIZE);
+            } catch (SQLException e) {
+               System.err.println ("The JDBC driver cannot fetch through a cursor; whole results are read at once");
+               _cursorsSupported = false;
+               cursor = false;
+            }
+         }//end if
+         // the driver only fetches through a cursor inside a transaction
+         if (cursor) conn.connection.setAutoCommit (false);
+
+         // issues the query instruction
+         rs = stmt.executeQuery ();
+         int rowCount = 0;
+         while (rs.next ()) {
+            handler.handle (rs);
+            ++rowCount;
+         }//end while
+         rs.close ();
+         rs = null;
+
+         if (cursor) {
+            conn.connection.commit ();
+            conn.connection.setAutoCommit (true);
+         }
+         rows = rowCount;
+         return rowCount;
+      } catch (SQLException e) {
+         throw failed (conn, query, e);
+      } finally {
+         closeQuietly (rs);
+         try {
+            // the statement is cached, so do not leave the fetch size behind
+            if (cursor && stmt != null) stmt.setFetchSize (0);
+         } catch (SQLException e) {
+            // ignored.
+         }
+         // a connection left in a transaction is rolled back by the pool
+         release (conn);
+         finished (query, params, start, rows);
+      }
+   }//end executeQueryForEach
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
-    * standard out.
+    * standard out.  Rows are streamed through executeQueryForEach and a
+    * buffered writer, so large results are printed in constant memory.
     *
-    * @param query the input query string
+    * @param query the input query string, using ? for each parameter
+    * @param params the values bound to the ? placeholders, in order
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
-   }//end executeQuery
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      final PrintWriter out = new PrintWriter (new BufferedWriter (new OutputStreamWriter (System.out), 8192));
+      try {
+         return executeQueryForEach (query, new RowHandler () {
+            private int numCol = -1;
+
+            public void handle (ResultSet rs) throws SQLException {
+               // outputs the column names before the first row
+               if (numCol < 0) {
+                  ResultSetMetaData rsmd = rs.getMetaData ();
+                  numCol = rsmd.getColumnCount ();
+                  for (int i = 1; i <= numCol; i++)
+                     out.print (rsmd.getColumnName (i) + "\t");
+                  out.println ();
+               }
+               for (int i = 1; i <= numCol; ++i)
+                  out.print (rs.getString (i) + "\t");
+               out.println ();
+            }
+         }, params);
+      } finally {
+         // flushed but not closed; System.out stays open
+         out.flush ();
+      }
+   }//end executeQueryAndPrintResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the results as
     * a list of records. Each record in turn is a list of attribute values
     *
-    * @param query the input query string
+    * @param query the input query string, using ? for each parameter
+    * @param params the values bound to the ? placeholders, in order
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      ResultSet rs = null;
+      try {
+         // fetches the cached statement and binds the parameters
+         PreparedStatement stmt = prepare (conn, query, params);
+
+         // issues the query instruction
+         rs = stmt.executeQuery ();
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and saves the data returned by the query.
+         List<List<String>> result  = new ArrayList<List<String>>();
+         while (rs.next()){
+            List<String> record = new ArrayList<String>();
+            for (int i=1; i<=numCol; ++i)
+               record.add(rs.getString (i));
+            result.add(record);
+         }//end while
+         rows = result.size ();
+         return result;
+      } catch (SQLException e) {
+         throw failed (conn, query, e);
+      } finally {
+         closeQuietly (rs);
+         release (conn);
+         finished (query, params, start, rows);
+      }
    }//end executeQueryAndReturnResult
 
    /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the number of results
+    * Method to execute an input query SQL instruction (i.e. SELECT) and
+    * return its rows as typed values, read with the column's own getter
+    * rather than through a String per cell.
     *
-    * @param query the input query string
-    * @return the number of rows returned
+    * @param query the input query string, using ? for each parameter
+    * @param mapper turns each row into a value
+    * @param params the values bound to the ? placeholders, in order
+    * @return one value per row, in order
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   public <T> List<T> executeQueryForList (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      ResultSet rs = null;
+      try {
+         rs = prepare (conn, query, params).executeQuery ();
+         List<T> result = new ArrayList<T>();
+         while (rs.next ())
+            result.add (mapper.map (rs));
+         rows = result.size ();
+         return result;
+      } catch (SQLException e) {
+         throw failed (conn, query, e);
+      } finally {
+         closeQuietly (rs);
+         release (conn);
+         finished (query, params, start, rows);
+      }
+   }//end executeQueryForList
 
-       int rowCount = 0;
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and
+    * return its first row as a typed value.  The statement's maximum row
+    * count is set to one, so drivers that support it stop the DBMS after
+    * the first row; any further rows are ignored either way.
+    *
+    * @param query the input query string, using ? for each parameter
+    * @param mapper turns the row into a value
+    * @param params the values bound to the ? placeholders, in order
+    * @return the value of the first row, or null if there are no rows
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> T executeQueryForObject (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      long start = System.nanoTime ();
+      int rows = -1;
+      PreparedStatement stmt = null;
+      ResultSet rs = null;
+      try {
+         stmt = prepare (conn, query, params);
+         stmt.setMaxRows (1);
+         rs = stmt.executeQuery ();
+         T value = null;
+         rows = 0;
+         if (rs.next ()) {
+            value = mapper.map (rs);
+            rows = 1;
+         }
+         return value;
+      } catch (SQLException e) {
+         throw failed (conn, query, e);
+      } finally {
+         closeQuietly (rs);
+         try {
+            // the statement is cached, so do not leave the row limit behind
+            if (stmt != null) stmt.setMaxRows (0);
+         } catch (SQLException e) {
+            // ignored.
+         }
+         release (conn);
+         finished (query, params, start, rows);
+      }
+   }//end executeQueryForObject
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-   }
+   /**
+    * Method to check whether an input query SQL instruction (i.e. SELECT)
+    * returns any row.  The query is wrapped in SELECT EXISTS, so the DBMS
+    * stops at the first matching row and a single boolean travels back.
+    *
+    * @param query the input query string, using ? for each parameter
+    * @param params the values bound to the ? placeholders, in order
+    * @return true if the query returns at least one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean executeExists (String query, Object... params) throws SQLException {
+      Boolean exists = executeQueryForObject ("SELECT EXISTS (" + query + ")", RowMapper.BOOLEAN, params);
+      return exists != null && exists;
+   }//end executeExists
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys.  currval() is per
+    * connection, so this only sees values generated on the connection it
+    * happens to borrow.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+	ConnectionPool.PooledConnection conn = acquire ();
+	ResultSet rs = null;
+	try {
+		rs = prepare (conn, "Select currval(?)", sequence).executeQuery ();
+		if (rs.next())
+			return rs.getInt(1);
+		return -1;
+	} finally {
+		closeQuietly (rs);
+		release (conn);
+	}
+   }
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+   /**
+    * Returns the service layer built on this session.
+    */
+   public RetailService getService() {
+      return this._service;
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Returns the connection pool, e.g. to report its active/idle/wait metrics.
     */
-   public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
+   public ConnectionPool getPool() {
+      return this._pool;
+   }
+
+   /*
+    * Records a finished statement in METRICS, and in SLOW_QUERIES when it
+    * ran for longer than the threshold.  rows is -1 when it failed.
+    */
+   private void finished (String sql, Object[] params, long start, long rows) {
+      long nanos = System.nanoTime () - start;
+      METRICS.recordStatement (sql, nanos, rows);
+      SLOW_QUERIES.record (this._pool, sql, params, nanos, rows);
+   }
+
+   private static void closeQuietly (ResultSet rs) {
+      try {
+         if (rs != null) rs.close ();
+      } catch (SQLException e) {
          // ignored.
-      }//end try
+      }
+   }
+
+   /**
+    * Method to close the connection pool if this session opened it.
+    */
+   public void cleanup(){
+      if (this._storeIndexRefresher != null){
+         this._storeIndexRefresher.cancel ();
+      }//end if
+      if (this._inventoryJob != null){
+         this._inventoryJob.stop ();
+      }//end if
+      if (this._pool != null && this._ownsPool){
+         METRICS.stop ();
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -292,6 +1378,7 @@ public class Retail {
                 System.out.println("9. Place Product Supply Request to Warehouse");
 		System.out.println("10. View Store Order Info");
 		System.out.println("11. Update Users (Admin Only)");
+		System.out.println("12. Rebuild Popularity Counters (Admin Only)");
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
@@ -307,6 +1394,7 @@ public class Retail {
                    case 9: placeProductSupplyRequests(esql); break;
 		   case 10: viewStoreOrderInfo(esql); break;
 		   case 11: updateUsers(esql); break;
+		   case 12: rebuildPopularity(esql); break;
 
                    case 20: usermenu = false; esql.userId = "-1"; break;
                    default : System.out.println("Unrecognized choice!"); break;
@@ -389,10 +1477,7 @@ public class Retail {
     **/ 
    public static boolean isManager(Retail esql) {
 	try {
-		String query = String.format("SELECT type FROM USERS WHERE userID = '%s'", esql.userId);
-		List<List<String>> result = esql.executeQueryAndReturnResult(query);
-		String type = result.get(0).get(0);
-		if (type.contains("customer")) return false;
+		return esql.getService().isManager(Integer.parseInt(esql.userId));
 	} catch (Exception e) {
 		System.out.println(e.getMessage());
 	}
@@ -405,10 +1490,7 @@ public class Retail {
     **/
    public static boolean isAdmin(Retail esql) {
 	try {
-		String query = String.format("SELECT type FROM USERS WHERE userID = '%s'", esql.userId);
-                List<List<String>> result = esql.executeQueryAndReturnResult(query);
-                String type = result.get(0).get(0);
-                if (type.contains("admin")) return true;
+		return esql.getService().isAdmin(Integer.parseInt(esql.userId));
 	} catch (Exception e) {
                 System.out.println(e.getMessage());
         }
@@ -421,17 +1503,11 @@ public class Retail {
     **/
    public static String getStoreId(Retail esql) {
 	try {
-		System.out.print("\tEnter Store ID: ");
-        	String storeId = in.readLine();
-
 		// Check that input is in correct format & that the store exists
-                if (isInteger(storeId)) {
-			String storeQuery = String.format("SELECT storeID FROM STORE WHERE storeID = '%s'", storeId);
-                        int resultNum = esql.executeQuery(storeQuery);
-                        if (resultNum == 0) System.out.println("Sorry, no store exists with this ID.");
+		String storeId = readStoreId();
+                if (storeId != null) {
+                        if (!esql.getService().storeExists(Integer.parseInt(storeId))) System.out.println("Sorry, no store exists with this ID.");
 			else return storeId;
-		} else {
-			System.out.println("Invalid Store ID; Must be an integer.");
 		}
 	} catch (Exception e) {
 		System.err.println(e.getMessage());
@@ -440,67 +1516,71 @@ public class Retail {
    }
 
    /*
-    * Creates a new user
+    * Get store ID from user without checking that the store exists
+    * @String; @null if user input is not an integer
     **/
-   public static void CreateUser(Retail esql){
-      try{
-         System.out.print("\tEnter name: ");
-         String name = in.readLine();
-
-	 // Validate name
-	 while (name.isEmpty()) {
-		System.out.println("Invalid Name; Must be at least one character long; Please Try Again...");
-		System.out.print("\tEnter name: ");
-		name = in.readLine();
-	 }
-
-         System.out.print("\tEnter password: ");
-         String password = in.readLine();
-	
-	 // Validate password
-	 while (password.isEmpty()) {
-		System.out.println("Invalid Password; Must be at least one character long; Please Try Again...");
-		System.out.print("\tEnter password: ");
-		password = in.readLine();
-	 }
+   static String readStoreId() throws IOException {
+	System.out.print("\tEnter Store ID: ");
+	String storeId = in.readLine();
+	if (isInteger(storeId)) return storeId;
+	System.out.println("Invalid Store ID; Must be an integer.");
+	return null;
+   }
 
-         System.out.print("\tEnter latitude: ");   
-         String latitude = in.readLine();       //enter lat value between [0.0, 100.0]
+   /*
+    * Prints a header line and then one line per row
+    **/
+   static void printRows(String header, List<?> rows) {
+	if (!rows.isEmpty())
+		System.out.println(header);
+	for (Object row : rows)
+		System.out.println(row + "\t");
+   }
 
-	 // Validate latitude
-	 float latFloat = Float.parseFloat(latitude);
-	 while (latFloat < 0 || latFloat > 100) {
-		System.out.println("Invalid Latitude; Must be between [0.0, 100.0]");
+   /*
+    * Reads a coordinate in [0.0, 100.0], asking again until one is given
+    **/
+   static double readCoordinate(String what) throws IOException {
+	System.out.print("\tEnter " + what + ": ");
+	float value = Float.parseFloat(in.readLine());
+	while (!RetailService.isCoordinate(value)) {
+		System.out.println("Invalid " + Character.toUpperCase(what.charAt(0)) + what.substring(1) + "; Must be between [0.0, 100.0]");
 		System.out.println("Please Try Again...");
-		System.out.print("\tEnter latitude: ");
-		latitude = in.readLine();
-		latFloat = Float.parseFloat(latitude);
-	 }
+		System.out.print("\tEnter " + what + ": ");
+		value = Float.parseFloat(in.readLine());
+	}
+	return value;
+   }
 
-         System.out.print("\tEnter longitude: ");  //enter long value between [0.0, 100.0]
-         String longitude = in.readLine();
+   /*
+    * Reads a non-empty line, asking again until one is given
+    **/
+   static String readNonEmpty(String prompt, String what) throws IOException {
+	System.out.print("\tEnter " + prompt + ": ");
+	String value = in.readLine();
+	while (value.isEmpty()) {
+		System.out.println("Invalid " + what + "; Must be at least one character long; Please Try Again...");
+		System.out.print("\tEnter " + prompt + ": ");
+		value = in.readLine();
+	}
+	return value;
+   }
 
-	 // Validate longitude
-	 float longFloat = Float.parseFloat(longitude);
-	 while (longFloat < 0 || longFloat > 100) {
-		System.out.println("Invalid Longitude; Must be between [0.0, 100.0]");
-		System.out.println("Please Try Again...");
-		System.out.print("\tEnter longitude: ");
-		longitude = in.readLine();
-		longFloat = Float.parseFloat(longitude);
-	 }
+   /*
+    * Creates a new user
+    **/
+   public static void CreateUser(Retail esql){
+      try{
+         String name = readNonEmpty("name", "Name");
+         String password = readNonEmpty("password", "Password");
+         double latitude = readCoordinate("latitude");       //enter lat value between [0.0, 100.0]
+         double longitude = readCoordinate("longitude");     //enter long value between [0.0, 100.0]
 
 	 // Return error if user already exists
-	 String checkUser = String.format("SELECT * FROM USERS WHERE name = '%s' AND password = '%s'", name, password);
-	 if (esql.executeQuery(checkUser) > 0) {
+	 if (esql.getService().createUser(name, password, latitude, longitude) == RetailService.Status.ALREADY_EXISTS) {
 		System.out.println("User already exists!");
 		return;
 	 }
-         
-         String type="customer";
-	 String query = String.format("INSERT INTO USERS (name, password, latitude, longitude, type) VALUES ('%s','%s', %s, %s,'%s')", name, password, latitude, longitude, type);
-
-         esql.executeUpdate(query);
          System.out.println ("User successfully created!");
       }catch(Exception e){
          System.err.println (e.getMessage ());
@@ -519,13 +1599,10 @@ public class Retail {
          System.out.print("\tEnter password: ");
          String password = in.readLine();
 
-         String query = String.format("SELECT * FROM USERS WHERE name = '%s' AND password = '%s'", name, password);
-
-	 List<List<String>> res = esql.executeQueryAndReturnResult(query);
-         int userNum = esql.executeQuery(query);
-	 if (userNum > 0) {
+	 UserProfile profile = esql.getService().logIn(name, password);
+	 if (profile != null) {
 		// Store userId of the logged in user
-		esql.userId = res.get(0).get(0);
+		esql.userId = String.valueOf(profile.userId);
 		return name;
 	 }
 	 
@@ -545,14 +1622,8 @@ public class Retail {
     **/  
    public static void viewStores(Retail esql) {
 	try {
-		// Use sql function/query to find all stores within 30 miles of the user
-		// Processing is done on db
-		String select = "SELECT s.storeID, s.name, s.latitude, s.longitude, s.managerID, s.dateEstablished AS Established FROM STORE s, USERS u WHERE ";
-		String condition1 = String.format("u.userID = '%s' AND ", esql.userId);
-		String condition2 = "calculate_distance(u.latitude, u.longitude, s.latitude, s.longitude) <= 30";
-		String query = select + condition1 + condition2;
-		esql.executeQueryAndPrintResult(query);
-
+		printRows("storeid\tname\tlatitude\tlongitude\tmanagerid\testablished\t",
+		          esql.getService().findStoresNear(Integer.parseInt(esql.userId)));
 	} catch (Exception e) {
 		System.err.println(e.getMessage());
 	}
@@ -566,34 +1637,21 @@ public class Retail {
 		// Get store ID from user
 		String storeId = getStoreId(esql);
 		
-		if (storeId != null) {
-			String select = "SELECT productName AS Name, numberOfUnits AS Units, pricePerUnit AS Price ";
-			String from = "FROM PRODUCT ";
-			String where = String.format("WHERE storeID = '%s'", storeId);
-			String query = select + from + where;
-			esql.executeQueryAndPrintResult(query);
-		}
+		if (storeId != null)
+			printRows("name\tunits\tprice\t", esql.getService().findProducts(Integer.parseInt(storeId)));
 	} catch (Exception e) {
 		System.err.println(e.getMessage());
 	}
    }
 
+   /*
+    * Places an order for a product at a store within 30 miles of the user.
+    **/
    public static void placeOrder(Retail esql) {
 	try {
 		// Get store ID from user
                 String storeId = getStoreId(esql);
-
-		// Check that store is within 30 miles of user
-		if (storeId != null) {
-			String distCondition1 = String.format("SELECT * FROM STORE s, USERS u WHERE u.userID = '%s' AND s.storeID = '%s' AND ", esql.userId, storeId);
-			String distCondition2 = "calculate_distance(u.latitude, u.longitude, s.latitude, s.longitude) <= 30";
-			String distQuery = distCondition1 + distCondition2;
-			int storeResNum = esql.executeQuery(distQuery);
-			if (storeResNum == 0) {
-				System.out.println("Sorry, store must be within 30 miles of your location.");
-				return;
-			}
-		}
+		if (storeId == null) return;
 
 		// Get product name 
 		System.out.print("\tEnter Product: ");
@@ -607,28 +1665,26 @@ public class Retail {
 			return;
 		}
 
-		// Check that the store has enough units of the product
-		String productSelect = "SELECT pricePerUnit FROM PRODUCT ";
-		String productCondition = String.format("WHERE storeID = '%s' AND productName = '%s' AND numberOfUnits >= '%s'", storeId, product, units);
-		String productQuery = productSelect + productCondition;
-		int productResNum = esql.executeQuery(productQuery);
-		if (productResNum == 0) {
-			System.out.println("Sorry, store does not have that many units of the desired product.");
-			System.out.println("Use Option 2 to view the products and their available quantities from this store.");
-			return;
+		// Check distance and stock and insert the order in one statement; a trigger takes the units
+		OrderResult result = esql.getService().placeOrder(Integer.parseInt(esql.userId), Integer.parseInt(storeId), product, Integer.parseInt(units));
+		switch (result.status) {
+			case PLACED:
+				System.out.println("Order successfully placed!");
+				break;
+			case INVALID_UNITS:
+				System.out.println("Invalid units; Must order at least one unit.");
+				break;
+			case NO_SUCH_STORE:
+				System.out.println("Sorry, no store exists with this ID.");
+				break;
+			case STORE_TOO_FAR:
+				System.out.println("Sorry, store must be within 30 miles of your location.");
+				break;
+			default:
+				System.out.println("Sorry, store does not have that many units of the desired product.");
+				System.out.println("Use Option 2 to view the products and their available quantities from this store.");
+				break;
 		}
-
-		// Insert order into Orders table
-		String insert = "INSERT INTO ORDERS (customerID, storeID, productName, unitsOrdered, orderTime) ";
-		String values = String.format("VALUES ('%s', '%s', '%s', '%s', CURRENT_TIMESTAMP)", esql.userId, storeId, product, units);
-		String ordersInsert = insert + values;
-		esql.executeUpdate(ordersInsert);
-		System.out.println("Order successfully placed!");
-
-		// Update numberOfUnits in Product table
-		// TODO: May be able to implement this as a trigger (fires after order is inserted into Orders table^)
-		String update = String.format("UPDATE PRODUCT SET numberOfUnits = numberOfUnits - '%s' WHERE storeID = '%s' AND productName = '%s'", units, storeId, product);
-		esql.executeUpdate(update);
 	} catch (Exception e) {
 		System.err.println(e.getMessage());
 	}
@@ -639,54 +1695,61 @@ public class Retail {
     **/
    public static void viewRecentOrders(Retail esql) {
 	try {
-		String select = "SELECT o.storeID, s.name, o.productName, o.unitsOrdered, o.orderTime FROM ORDERS o, STORE s ";
-		String where = String.format("WHERE o.customerID = '%s' AND o.storeID = s.storeID ORDER BY o.orderTime DESC LIMIT 5", esql.userId);
-		String query = select + where;
-		esql.executeQueryAndPrintResult(query);
+		printRows("storeid\tname\tproductname\tunitsordered\tordertime\t",
+		          esql.getService().findRecentOrders(Integer.parseInt(esql.userId), 5));
 	} catch (Exception e) {
                 System.err.println(e.getMessage());
         }
    }
    
+   /*
+    * Prints why a manager's change was refused
+    **/
+   static void printRefusal(RetailService.Status status) {
+	switch (status) {
+		case NOT_AUTHORIZED:
+			System.out.println("Sorry, you must be a manager to access this option.");
+			break;
+		case NO_SUCH_STORE:
+			System.out.println("Sorry, no store exists with this ID.");
+			break;
+		case NOT_YOUR_STORE:
+			System.out.println("Sorry, you do not manage this store.");
+			break;
+		case NO_SUCH_PRODUCT:
+			System.out.println("Sorry, this store does not have that product.");
+			break;
+		case NO_SUCH_WAREHOUSE:
+			System.out.println("Warehouse does not exist; Exitting");
+			break;
+		default:
+			break;
+	}
+   }
+
    /*
     * Update product information, including: numberOfUnits and pricePerUnit.
+    * All inputs are read first and then checked with a single query.
     **/ 
    public static void updateProduct(Retail esql) {
 	try {
+		RetailService service = esql.getService();
+		int userId = Integer.parseInt(esql.userId);
+
 		// Verify that user is a manager
-		if (!isManager(esql)) {
+		if (!service.isManager(userId)) {
 			System.out.println("Sorry, you must be a manager to access this option.");
 			return;
 		}
 
 		// Get store ID
-		String storeId = getStoreId(esql);
+		String storeId = readStoreId();
 		if (storeId == null) return;
 
-		// Check that user is a manager of this store
-		String userQuery = String.format("SELECT type FROM USERS WHERE userID = '%s'", esql.userId);
-		List<List<String>> userResult = esql.executeQueryAndReturnResult(userQuery);
-		if (userResult.get(0).get(0).contains("manager")) {
-			String storeQuery = String.format("SELECT managerID FROM STORE WHERE storeID = '%s'", storeId);
-			List<List<String>> storeResult = esql.executeQueryAndReturnResult(storeQuery);
-			if (!storeResult.get(0).get(0).equals(esql.userId)) {
-				System.out.println("Sorry, you can only update products in your own store.");
-				return;
-			}
-		}
-
 		// Get product name
 		System.out.print("\tEnter Product: ");
 		String product = in.readLine();
 
-		// Check that the store has this product
-		String productQuery = String.format("SELECT numberOfUnits FROM PRODUCT WHERE storeID = '%s' AND productName = '%s'", storeId, product);
-		int productResult = esql.executeQuery(productQuery);
-		if (productResult == 0) {
-			System.out.println("Sorry, this store does not have that product.");
-			return;
-		}
-
 		// Get number of units
 		System.out.print("\tEnter # of units: ");
                 String units = in.readLine();
@@ -703,13 +1766,13 @@ public class Retail {
 			return;
 		}
 
-		// Update numberOfUnits and pricePerUnit in Product table
-		String update = String.format("UPDATE PRODUCT SET numberOfUnits = '%s', pricePerUnit = '%s' WHERE storeID = '%s' AND productName = '%s'", units, price, storeId, product);
-		esql.executeUpdate(update);
-
-		// Insert new tuple into ProductUpdates table
-		String insert = String.format("INSERT INTO PRODUCTUPDATES (managerID, storeID, productName, updatedOn) VALUES ('%s', '%s', '%s', CURRENT_TIMESTAMP)", esql.userId, storeId, product);
-		esql.executeUpdate(insert);
+		// Check the store, its manager and the product, then update numberOfUnits and pricePerUnit and log the update
+		RetailService.Status status = service.updateProduct(userId, Integer.parseInt(storeId), product,
+		                                                    Integer.parseInt(units), Double.parseDouble(price));
+		if (status == RetailService.Status.NOT_YOUR_STORE)
+			System.out.println("Sorry, you can only update products in your own store.");
+		else
+			printRefusal(status);
 	} catch (Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -720,18 +1783,16 @@ public class Retail {
     **/
    public static void viewRecentUpdates(Retail esql) {
 	try {
-		// Get manager's store ID
-		String storeQuery = String.format("SELECT storeID FROM STORE WHERE managerID = '%s'", esql.userId);
-		List<List<String>> storeResult = esql.executeQueryAndReturnResult(storeQuery);
-		if (storeResult.size() == 0) {
+		// Get manager's store IDs
+		RetailService service = esql.getService();
+		if (service.getManagedStores(Integer.parseInt(esql.userId)).isEmpty()) {
 			System.out.println("Sorry, you currently do not manage any stores.");
 			return;
 		}
-		String storeId = storeResult.get(0).get(0);
 
-		// Print 5 most recent updates
-		String query = String.format("SELECT * FROM PRODUCTUPDATES WHERE storeID = '%s' ORDER BY updatedOn DESC LIMIT 5", storeId);
-		esql.executeQueryAndPrintResult(query);
+		// Print 5 most recent updates across all of the manager's stores
+		printRows("updatenumber\tmanagerid\tstoreid\tproductname\tupdatedon\t",
+		          service.findRecentUpdates(Integer.parseInt(esql.userId), 5));
 	} catch (Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -743,7 +1804,8 @@ public class Retail {
    public static void updateUsers(Retail esql) {
 	try {
 		// Verify user is admin
-		if (!isAdmin(esql)) {
+		RetailService service = esql.getService();
+		if (!service.isAdmin(Integer.parseInt(esql.userId))) {
                         System.out.println("Sorry, you must be an admin to access this option.");
                         return;
                 }
@@ -753,50 +1815,23 @@ public class Retail {
 		String user = in.readLine();
 
 		// Check that user exists
-		String userQuery = String.format("SELECT * FROM USERS WHERE userID = '%s'", user);
-		int userResult = esql.executeQuery(userQuery);
-		if (userResult == 0) {
+		if (!isInteger(user)) {
+			System.out.println("Invalid User ID; Must be an integer.");
+			return;
+		}
+		if (!service.userExists(Integer.parseInt(user))) {
 			System.out.println("Sorry, a user does not exist with that ID.");
 			return;
 		}
 
-		// Get Name
-		System.out.print("\tEnter Name: ");
-		String name = in.readLine();
-		while (name.isEmpty()) {
-                	System.out.println("Invalid Name; Must be at least one character long; Please Try Again...");
-                	System.out.print("\tEnter name: ");
-                	name = in.readLine();
-         	}
-
-		// Get Latitude
-		System.out.print("\tEnter latitude: ");   
-         	String latitude = in.readLine();
-		float latFloat = Float.parseFloat(latitude);
-	 	while (latFloat < 0 || latFloat > 100) {
-			System.out.println("Invalid Latitude; Must be between [0.0, 100.0]");
-			System.out.println("Please Try Again...");
-			System.out.print("\tEnter latitude: ");
-			latitude = in.readLine();
-			latFloat = Float.parseFloat(latitude);
-	 	}
-
-		// Get Longitude
-		System.out.print("\tEnter longitude: ");  //enter long value between [0.0, 100.0]
-         	String longitude = in.readLine();
-		float longFloat = Float.parseFloat(longitude);
-	 	while (longFloat < 0 || longFloat > 100) {
-			System.out.println("Invalid Longitude; Must be between [0.0, 100.0]");
-			System.out.println("Please Try Again...");
-			System.out.print("\tEnter longitude: ");
-			longitude = in.readLine();
-			longFloat = Float.parseFloat(longitude);
-	 	}
+		String name = readNonEmpty("Name", "Name");
+		double latitude = readCoordinate("latitude");
+		double longitude = readCoordinate("longitude");
 
 		// Get Type
 		System.out.print("\tEnter User Type: ");
 		String type = in.readLine();
-		while (!(type.equals("customer") || type.equals("manager") || type.equals("admin"))) {
+		while (!RetailService.isUserType(type)) {
 			System.out.println("Invalid Type; Must be 'customer', 'manager', or 'admin'");
 			System.out.println("Please Try Again...");
 			System.out.print("\tEnter User Type: ");
@@ -804,70 +1839,86 @@ public class Retail {
 		}
 
 		// Update user
-		String update = String.format("UPDATE USERS SET name = '%s', latitude = '%s', longitude = '%s', type = '%s'", name, latitude, longitude, type);
-		esql.executeUpdate(update);
+		if (service.updateUser(Integer.parseInt(esql.userId), Integer.parseInt(user), name, latitude, longitude, type)
+		      == RetailService.Status.NO_SUCH_USER)
+			System.out.println("Sorry, a user does not exist with that ID.");
 	} catch (Exception e) {
                 System.err.println(e.getMessage());
         }
    }
 
    /*
-    * Allow managers to see order information for their store.
+    * Permits Admins to recompute the popularity counters from the Orders table.
+    **/
+   public static void rebuildPopularity(Retail esql) {
+	try {
+		// Verify user is admin
+		if (esql.getService().rebuildPopularity(Integer.parseInt(esql.userId)) != RetailService.Status.OK) {
+			System.out.println("Sorry, you must be an admin to access this option.");
+			return;
+		}
+		System.out.println("Popularity counters rebuilt from orders.");
+	} catch (Exception e) {
+		System.err.println(e.getMessage());
+	}
+   }
+
+   /*
+    * Allow managers to see order information for their stores.
     **/
    public static void viewStoreOrderInfo(Retail esql) {
 	try {
 		// Check that user is a manager
-		if (!isManager(esql)) {
+		RetailService service = esql.getService();
+		int userId = Integer.parseInt(esql.userId);
+		if (!service.isManager(userId)) {
 			System.out.println("Sorry, must be a manager to use this function.");
 			return;
 		}
 
-		// Get store ID
-		String storeQuery = String.format("SELECT storeID FROM STORE WHERE managerID = '%s'", esql.userId);
-		List<List<String>> storeResult = esql.executeQueryAndReturnResult(storeQuery);
-		if (storeResult.size() == 0) {
+		// Get store IDs
+		if (service.getManagedStores(userId).isEmpty()) {
 			System.out.println("Sorry, you currently do not manage any stores.");
 			return;
 		}
-		String storeId = storeResult.get(0).get(0);
 
 		// Print store order info
-		String select = "SELECT o.orderNumber AS OrderNumber, u.name AS CustomerName, o.storeID AS StoreID, o.productName AS ProductName, o.orderTime AS Date ";
-		String from = "FROM ORDERS o, USERS u ";
-		String where = String.format("WHERE o.storeID = '%s' AND o.customerID = u.userID", storeId);
-		String query = select + from + where;
-		esql.executeQueryAndPrintResult(query);
+		final boolean[] headerPrinted = { false };
+		service.forEachStoreOrder(userId, new RowHandler() {
+			public void handle(ResultSet rs) throws SQLException {
+				if (!headerPrinted[0]) {
+					System.out.println("ordernumber\tcustomername\tstoreid\tproductname\tdate\t");
+					headerPrinted[0] = true;
+				}
+				System.out.println(StoreOrder.MAPPER.map(rs) + "\t");
+			}
+		});
 	} catch (Exception e) {
                 System.err.println(e.getMessage());
         }
    }
 
    /*
-    * Allow managers to view the 5 most popular products ordered from their store.
+    * Allow managers to view the 5 most popular products ordered from their stores.
     **/ 
    public static void viewPopularProducts(Retail esql) {
 	try {
 		// Check that user is a manager
-		if (!isManager(esql)) {
+		RetailService service = esql.getService();
+		int userId = Integer.parseInt(esql.userId);
+		if (!service.isManager(userId)) {
 			System.out.println("Sorry, must be a manager to use this function.");
 			return;
 		}
 
-		// Get Store ID
-		String storeQuery = String.format("SELECT storeID FROM STORE WHERE managerID = '%s'", esql.userId);
-                List<List<String>> storeResult = esql.executeQueryAndReturnResult(storeQuery);
-                if (storeResult.size() == 0) {
+		// Get Store IDs
+                if (service.getManagedStores(userId).isEmpty()) {
                         System.out.println("Sorry, you currently do not manage any stores.");
                         return;
                 }
-                String storeId = storeResult.get(0).get(0);
-
-		// Get popular products from store
-		String select = "SELECT productName, COUNT(*) AS NumOfOrders FROM ORDERS ";
-		String condition = String.format("WHERE storeID = '%s' ", storeId);
-		String group = "GROUP BY productName ORDER BY COUNT(*) DESC LIMIT 5";
-		String query = select + condition + group;
-		esql.executeQueryAndPrintResult(query);
+
+		// Get popular products from the counters kept by the orders_popularity trigger
+		printRows("storeid\tproductname\tnumoforders\t", service.findPopularProducts(userId, 5));
 	} catch (Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -879,64 +1930,49 @@ public class Retail {
    public static void viewPopularCustomers(Retail esql) {
 	try {
 		// Check that user is a manager
-		if (!isManager(esql)) {
+		RetailService service = esql.getService();
+		int userId = Integer.parseInt(esql.userId);
+		if (!service.isManager(userId)) {
                         System.out.println("Sorry, must be a manager to use this function.");
                         return;
                 }
 
-		// Get Store ID
-		String storeQuery = String.format("SELECT storeID FROM STORE WHERE managerID = '%s'", esql.userId);
-                List<List<String>> storeResult = esql.executeQueryAndReturnResult(storeQuery);
-                if (storeResult.size() == 0) {
+		// Get Store IDs
+                if (service.getManagedStores(userId).isEmpty()) {
                         System.out.println("Sorry, you currently do not manage any stores.");
                         return;
                 }
-                String storeId = storeResult.get(0).get(0);
-
-		// Get popular customers from manager's store
-		String select = "SELECT o.customerID, u.name, COUNT(*) AS NumOfOrders FROM ORDERS o, USERS u ";
-		String condition = String.format("WHERE storeID = '%s' AND o.customerID = u.userID ", storeId);
-		String group = "GROUP BY o.customerID, u.name ORDER BY COUNT(*) DESC LIMIT 5";
-		String query = select + condition + group;
-		esql.executeQueryAndPrintResult(query);
+
+		// Get popular customers from the counters kept by the orders_popularity trigger
+		printRows("customerid\tname\tnumoforders\t", service.findPopularCustomers(userId, 5));
 	} catch (Exception e) {
                 System.err.println(e.getMessage());
         }
    }
 
    
+   /*
+    * Allow managers to order more units of a product from a warehouse.
+    * All inputs are read first and then checked with a single query.
+    **/
    public static void placeProductSupplyRequests(Retail esql) {
 	try {
 		// Check if is Manager
-		if (!isManager(esql)) {
+		RetailService service = esql.getService();
+		int userId = Integer.parseInt(esql.userId);
+		if (!service.isManager(userId)) {
 			System.out.println("Sorry, you must be a manager to access this option.");
 			return;
 		}
 	
 		// Get store ID from user
-		String storeId = getStoreId(esql);
+		String storeId = readStoreId();
 		if (storeId == null) return;
 
-		// Verify that this store is managed by this user
-		String storeQuery = String.format("SELECT storeID FROM STORE WHERE managerID = '%s'", esql.userId);
-                List<List<String>> storeResult = esql.executeQueryAndReturnResult(storeQuery);
-		if (!storeResult.get(0).get(0).contains(storeId)) {
-			System.out.println("Sorry, you do not manage this store.");
-			return;
-		}
-
 		// Get product name 
 		System.out.print("\tEnter Product: ");
 		String product = in.readLine();
 
-		// Check that the store sells this product
-		String productQuery = String.format("SELECT storeID FROM PRODUCT WHERE productName = '%s' AND storeID = '%s'", product, storeId);
-		int productResult = esql.executeQuery(productQuery);
-		if (productResult == 0) {
-			System.out.println("Sorry, your store does not sell this product.");
-			return;
-		}
-
 		// Get number of units
 		System.out.print("\tEnter # of units: ");
 		String units = in.readLine();
@@ -953,22 +1989,13 @@ public class Retail {
 			return;
 		}
 	
-		// Checking if warehouse exists
-		String warehouseQuery = String.format("SELECT warehouseID FROM WAREHOUSE WHERE WarehouseID = '%s'", warehouseID);
-		List<List<String>> warehouseResult = esql.executeQueryAndReturnResult(warehouseQuery);
-		int warehouseExists = esql.executeQuery(warehouseQuery);
-		if (warehouseExists == 0) {
-			System.out.println("Warehouse does not exist; Exitting");
-                	return;
-		}
-	
-		// insert new product supply request into table productsupplyrequests
-		String insert = String.format("INSERT INTO ProductSupplyRequests(managerID, warehouseID, storeID, productName, unitsRequested) VALUES ('%s', '%s', '%s','%s', %s)", esql.userId, warehouseID, storeId, product, units);
-		esql.executeUpdate(insert);
-
-		// update the amount of the product
-		String update = String.format("UPDATE PRODUCT SET numberOfUnits = numberOfUnits + '%s' WHERE storeID = '%s' AND productName = '%s'", units, storeId, product);
-		esql.executeUpdate(update);
+		// Check the store, its manager, the product and the warehouse, then record the request and add the units to the store's stock
+		RetailService.Status status = service.placeSupplyRequest(userId, Integer.parseInt(storeId), product,
+		                                                         Integer.parseInt(units), Integer.parseInt(warehouseID));
+		if (status == RetailService.Status.NO_SUCH_PRODUCT)
+			System.out.println("Sorry, your store does not sell this product.");
+		else
+			printRefusal(status);
 	}catch (Exception e) {
 		System.err.println(e.getMessage());
 	}
@@ -977,4 +2004,3 @@ public class Retail {
 
 
 }//end Retail
-
@@ -0,0 +1,422 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class benchmarks the console operations of Retail end to end: each
+ * operation is fed its keyboard input from a script and its output is
+ * discarded, so the timings include everything a user waits for.  Every
+ * operation is warmed up and then run for a fixed time, and the throughput
+ * and latency percentiles are printed and written as JSON for comparing
+ * runs.
+ *
+ * With -Dbench.scales=1,10,100 the database is regenerated with
+ * DataGenerator and reloaded with BulkLoader at each scale before it is
+ * measured; otherwise the data already loaded is measured.
+ *
+ * With -Dbench.modes=statements,procedures the write operations are
+ * measured once sending their statements from Java and once calling the
+ * PL/pgSQL functions of create_tables.sql, so the two can be compared.
+ *
+ * placeOrder keeps ordering the same sampled products, so they are
+ * restocked before its warmup and again before its measurement.  Orders
+ * refused without an error, such as when a product still runs out, are
+ * counted in a column of their own, so they are not mistaken for cheap
+ * successful orders.
+ *
+ */
+public class RetailBenchmark {
+
+   private static final long WARMUP_MILLIS = Long.getLong("bench.warmupSeconds", 5L) * 1000;
+   private static final long MEASURE_MILLIS = Long.getLong("bench.measureSeconds", 10L) * 1000;
+
+   // rows sampled from the database to pick operation parameters from
+   private static final int SAMPLE_SIZE = Integer.getInteger("bench.sampleSize", 1000);
+
+   // units every sampled product is topped up to before placeOrder is run
+   private static final int RESTOCK_UNITS = Integer.getInteger("bench.restockUnits", 100000);
+
+   /**
+    * One console operation together with the input it reads.
+    */
+   abstract static class Operation {
+      final String name;
+
+      // true if the operation has a stored function version, see Retail.setUseProcedures
+      final boolean write;
+
+      Operation(String name) {
+         this(name, false);
+      }
+
+      Operation(String name, boolean write) {
+         this.name = name;
+         this.write = write;
+      }
+
+      /**
+       * Runs the operation once with parameters drawn from the sample.
+       */
+      abstract void run(Retail esql, Sample sample, Random random);
+
+      /**
+       * Gets the data ready for a warmup or a measurement.
+       */
+      void prepare(Retail esql, Sample sample) throws Exception {
+      }
+
+      /**
+       * Returns a figure that grows by one for every run that did its work,
+       * so that the runs refused without an error can be told apart; -1 if
+       * the operation is never refused.
+       */
+      long done(Retail esql) throws Exception {
+         return -1;
+      }
+   }//end Operation
+
+   /**
+    * Parameters the operations draw from, read from the loaded data.
+    */
+   static class Sample {
+      // userID, name, password of customers
+      final List<List<String>> customers;
+      // userID, storeID, productName of customers and products of stores near them
+      final List<List<String>> nearby;
+      // managerID, storeID, productName of managers and products of their stores
+      final List<List<String>> managed;
+      final List<List<String>> warehouses;
+
+      Sample(Retail esql) throws Exception {
+         customers = esql.executeQueryAndReturnResult (
+            "SELECT userID, name, password FROM USERS WHERE type = 'customer' LIMIT ?", SAMPLE_SIZE);
+         nearby = esql.executeQueryAndReturnResult (
+            "SELECT u.userID, s.storeID, p.productName FROM USERS u, STORE s, PRODUCT p " +
+            "WHERE u.type = 'customer' AND p.storeID = s.storeID AND " + Retail.NEAR_STORE_CONDITION + " LIMIT ?", SAMPLE_SIZE);
+         managed = esql.executeQueryAndReturnResult (
+            "SELECT s.managerID, s.storeID, p.productName FROM STORE s, PRODUCT p WHERE p.storeID = s.storeID LIMIT ?", SAMPLE_SIZE);
+         warehouses = esql.executeQueryAndReturnResult ("SELECT warehouseID FROM WAREHOUSE LIMIT ?", SAMPLE_SIZE);
+         if (customers.isEmpty() || nearby.isEmpty() || managed.isEmpty() || warehouses.isEmpty())
+            throw new Exception("The database has no customers, nearby stores, managed stores or warehouses to benchmark with");
+      }
+
+      static List<String> pick(List<List<String>> rows, Random random) {
+         return rows.get(random.nextInt(rows.size()));
+      }
+   }//end Sample
+
+   static final Operation[] OPERATIONS = {
+      new Operation("LogIn") {
+         void run(Retail esql, Sample sample, Random random) {
+            List<String> c = Sample.pick(sample.customers, random);
+            script(c.get(1).trim(), c.get(2).trim());
+            Retail.LogIn(esql);
+         }
+      },
+      new Operation("viewStores") {
+         void run(Retail esql, Sample sample, Random random) {
+            esql.userId = Sample.pick(sample.customers, random).get(0).trim();
+            Retail.viewStores(esql);
+         }
+      },
+      new Operation("viewProducts") {
+         void run(Retail esql, Sample sample, Random random) {
+            List<String> n = Sample.pick(sample.nearby, random);
+            esql.userId = n.get(0).trim();
+            script(n.get(1).trim());
+            Retail.viewProducts(esql);
+         }
+      },
+      new Operation("placeOrder", true) {
+         void run(Retail esql, Sample sample, Random random) {
+            List<String> n = Sample.pick(sample.nearby, random);
+            esql.userId = n.get(0).trim();
+            script(n.get(1).trim(), n.get(2).trim(), "1");
+            Retail.placeOrder(esql);
+         }
+
+         void prepare(Retail esql, Sample sample) throws Exception {
+            StringBuilder sb = new StringBuilder();
+            Object[] params = new Object[1 + 2 * sample.nearby.size()];
+            params[0] = RESTOCK_UNITS;
+            for (int i = 0; i < sample.nearby.size(); ++i) {
+               sb.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+               params[1 + 2 * i] = Integer.parseInt(sample.nearby.get(i).get(1).trim());
+               params[2 + 2 * i] = sample.nearby.get(i).get(2).trim();
+            }
+            esql.executeUpdate("UPDATE PRODUCT SET numberOfUnits = GREATEST(numberOfUnits, ?) " +
+                               "WHERE (storeID, productName) IN (" + sb + ")", params);
+         }
+
+         long done(Retail esql) throws Exception {
+            return esql.executeQueryForObject("SELECT count(*) FROM ORDERS", RowMapper.LONG);
+         }
+      },
+      new Operation("viewRecentOrders") {
+         void run(Retail esql, Sample sample, Random random) {
+            esql.userId = Sample.pick(sample.customers, random).get(0).trim();
+            Retail.viewRecentOrders(esql);
+         }
+      },
+      new Operation("viewPopularProducts") {
+         void run(Retail esql, Sample sample, Random random) {
+            esql.userId = Sample.pick(sample.managed, random).get(0).trim();
+            Retail.viewPopularProducts(esql);
+         }
+      },
+      new Operation("updateProduct", true) {
+         void run(Retail esql, Sample sample, Random random) {
+            List<String> m = Sample.pick(sample.managed, random);
+            esql.userId = m.get(0).trim();
+            script(m.get(1).trim(), m.get(2).trim(), String.valueOf(100 + random.nextInt(100)),
+                   String.valueOf(1 + random.nextInt(100)));
+            Retail.updateProduct(esql);
+         }
+      },
+      new Operation("placeProductSupplyRequests", true) {
+         void run(Retail esql, Sample sample, Random random) {
+            List<String> m = Sample.pick(sample.managed, random);
+            esql.userId = m.get(0).trim();
+            script(m.get(1).trim(), m.get(2).trim(), "1", Sample.pick(sample.warehouses, random).get(0).trim());
+            Retail.placeProductSupplyRequests(esql);
+         }
+      }
+   };
+
+   /**
+    * Latency percentiles and throughput of one operation.
+    */
+   static class Result {
+      final String scale;
+      final String mode;
+      final String operation;
+      final int count;
+      final long errors;
+      final long refused;
+      final double seconds;
+      final double mean, p50, p90, p99, p999, max;
+
+      Result(String scale, String mode, String operation, long[] nanos, int count, long errors, long refused,
+             double seconds) {
+         this.scale = scale;
+         this.mode = mode;
+         this.operation = operation;
+         this.count = count;
+         this.errors = errors;
+         this.refused = refused;
+         this.seconds = seconds;
+         Arrays.sort(nanos, 0, count);
+         double sum = 0;
+         for (int i = 0; i < count; ++i) sum += nanos[i];
+         this.mean = count == 0 ? 0 : sum / count / 1e6;
+         this.p50 = percentile(nanos, count, 0.50);
+         this.p90 = percentile(nanos, count, 0.90);
+         this.p99 = percentile(nanos, count, 0.99);
+         this.p999 = percentile(nanos, count, 0.999);
+         this.max = count == 0 ? 0 : nanos[count - 1] / 1e6;
+      }
+
+      double throughput() {
+         return seconds > 0 ? count / seconds : 0;
+      }
+
+      String toJson() {
+         return String.format(Locale.US,
+            "{\"scale\": \"%s\", \"mode\": \"%s\", \"operation\": \"%s\", \"count\": %d, \"errors\": %d, \"refused\": %d, " +
+            "\"opsPerSec\": %.2f, " +
+            "\"latencyMillis\": {\"mean\": %.3f, \"p50\": %.3f, \"p90\": %.3f, \"p99\": %.3f, \"p999\": %.3f, \"max\": %.3f}}",
+            scale, mode, operation, count, errors, refused, throughput(), mean, p50, p90, p99, p999, max);
+      }
+
+      public String toString() {
+         return String.format(Locale.US, "%-28s %9.1f ops/s %9.3f %9.3f %9.3f %9.3f %9.3f %6d %7d",
+                              operation, throughput(), mean, p50, p99, p999, max, errors, refused);
+      }
+   }//end Result
+
+   // nearest-rank percentile of the first count sorted values, in milliseconds
+   static double percentile(long[] sorted, int count, double p) {
+      if (count == 0) return 0;
+      int rank = (int) Math.ceil(p * count);
+      return sorted[Math.max(0, Math.min(count, rank) - 1)] / 1e6;
+   }
+
+   // feeds the next readLine() calls of the console methods
+   static void script(String... lines) {
+      StringBuilder sb = new StringBuilder();
+      for (String line : lines) sb.append(line).append('\n');
+      Retail.in = new BufferedReader(new StringReader(sb.toString()));
+   }
+
+   /*
+    * Counts the lines written to System.err, which is where the console
+    * methods report failed statements.
+    */
+   static class ErrorCounter extends OutputStream {
+      long lines = 0;
+
+      public void write(int b) {
+         if (b == '\n') ++lines;
+      }
+
+      public void write(byte[] b, int off, int len) {
+         for (int i = off; i < off + len; ++i)
+            if (b[i] == '\n') ++lines;
+      }
+   }//end ErrorCounter
+
+   static final OutputStream NULL_OUTPUT = new OutputStream() {
+      public void write(int b) { }
+      public void write(byte[] b, int off, int len) { }
+   };
+
+   /**
+    * Warms up and measures every operation once against the loaded data.
+    * In "procedures" mode only the write operations are measured, since
+    * the others run the same statements in both modes.
+    *
+    * @param esql the database to run against
+    * @param scale label of the loaded data set
+    * @param mode "statements" or "procedures"
+    * @return one result per operation
+    * @throws Exception when no parameters can be sampled from the data
+    */
+   public static List<Result> run(Retail esql, String scale, String mode) throws Exception {
+      boolean procedures = mode.equals("procedures");
+      esql.setUseProcedures(procedures);
+      Sample sample = new Sample(esql);
+      String only = System.getProperty("bench.ops");
+      List<String> selected = only == null ? null : Arrays.asList(only.split(","));
+      List<Result> results = new ArrayList<Result>();
+
+      PrintStream out = System.out;
+      PrintStream err = System.err;
+      ErrorCounter errors = new ErrorCounter();
+      try {
+         System.setErr(new PrintStream(errors, true));
+         for (Operation op : OPERATIONS) {
+            if (selected != null && !selected.contains(op.name)) continue;
+            if (procedures && !op.write) continue;
+            Random random = new Random(166);
+            System.setOut(new PrintStream(NULL_OUTPUT));
+
+            op.prepare(esql, sample);
+            long end = System.currentTimeMillis() + WARMUP_MILLIS;
+            while (System.currentTimeMillis() < end)
+               op.run(esql, sample, random);
+
+            // the warmup may have used up what was prepared
+            op.prepare(esql, sample);
+            long done = op.done(esql);
+            errors.lines = 0;
+            long[] nanos = new long[1 << 16];
+            int count = 0;
+            long start = System.nanoTime();
+            end = System.currentTimeMillis() + MEASURE_MILLIS;
+            while (System.currentTimeMillis() < end) {
+               long t = System.nanoTime();
+               op.run(esql, sample, random);
+               if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+               nanos[count++] = System.nanoTime() - t;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long refused = done < 0 ? 0 : Math.max(0, count - errors.lines - (op.done(esql) - done));
+            Result result = new Result(scale, mode, op.name, nanos, count, errors.lines, refused, seconds);
+            System.setOut(out);
+            System.out.println(result);
+            results.add(result);
+         }//end for
+      } finally {
+         System.setOut(out);
+         System.setErr(err);
+         esql.setUseProcedures(Retail.PROCEDURE_MODE);
+      }
+      return results;
+   }//end run
+
+   static void writeJson(File file, List<Result> results) throws Exception {
+      PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+      try {
+         out.println("{\"warmupSeconds\": " + WARMUP_MILLIS / 1000 + ", \"measureSeconds\": " + MEASURE_MILLIS / 1000 + ",");
+         out.println(" \"results\": [");
+         for (int i = 0; i < results.size(); ++i)
+            out.println("  " + results.get(i).toJson() + (i + 1 < results.size() ? "," : ""));
+         out.println(" ]}");
+      } finally {
+         out.close();
+      }
+   }//end writeJson
+
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] [-Dbench.scales=1,10,...] [-Dbench.ops=LogIn,...] [-Dbench.modes=statements,procedures] [-Dbench.out=<json file>] " +
+            RetailBenchmark.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      Retail esql = null;
+      try {
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new Retail (args[0], args[1], args[2], "");
+
+         String scales = System.getProperty("bench.scales");
+         String[] modes = System.getProperty("bench.modes", Retail.PROCEDURE_MODE ? "procedures" : "statements").split(",");
+         File dataDir = new File(System.getProperty("bench.dataDir", System.getProperty("java.io.tmpdir")));
+         List<Result> results = new ArrayList<Result>();
+         for (String scale : scales == null ? new String[] { "loaded" } : scales.split(",")) {
+            scale = scale.trim();
+            if (scales != null) {
+               File dir = new File(dataDir, "retail-scale-" + scale);
+               System.out.println("Generating and loading scale " + scale + " into " + dir);
+               new DataGenerator(dir, Double.parseDouble(scale)).generate();
+               new BulkLoader(esql, dir, Integer.getInteger("load.threads", 4)).load(true);
+               Retail.USER_PROFILES.invalidateAll();
+               if (esql.getStoreIndex() != null) esql.getStoreIndex().load(esql);
+            }
+            for (String mode : modes) {
+               mode = mode.trim();
+               System.out.println(String.format("%nScale %s, %s: %d s warmup, %d s measurement per operation",
+                                                scale, mode, WARMUP_MILLIS / 1000, MEASURE_MILLIS / 1000));
+               System.out.println(String.format("%-28s %15s %9s %9s %9s %9s %9s %6s %7s",
+                                                "operation", "throughput", "mean ms", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors", "refused"));
+               results.addAll(run(esql, scale, mode));
+            }
+         }//end for
+
+         File json = new File(System.getProperty("bench.out", "benchmark.json"));
+         writeJson(json, results);
+         System.out.println("\nResults written to " + json.getAbsolutePath());
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      } finally {
+         if (esql != null) esql.cleanup ();
+      }
+   }//end main
+}//end RetailBenchmark
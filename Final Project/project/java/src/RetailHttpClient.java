@@ -0,0 +1,150 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a smoke test for RetailHttpServer.  It calls every
+ * endpoint once and prints the answers, then sends many concurrent
+ * requests and reports the throughput and the number of failed requests.
+ * The IDs default to users and stores of the shipped data.
+ *
+ */
+public class RetailHttpClient {
+
+   private final String base;
+
+   public RetailHttpClient(String base) {
+      this.base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+   }
+
+   /**
+    * Sends one request and returns { status, body }.
+    *
+    * @param method GET or POST
+    * @param path the path and query string
+    * @param form the form-encoded POST body, or null
+    */
+   public String[] call(String method, String path, String form) throws IOException {
+      HttpURLConnection conn = (HttpURLConnection) new URL(base + path).openConnection();
+      try {
+         conn.setRequestMethod(method);
+         if (form != null) {
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            OutputStream out = conn.getOutputStream();
+            try {
+               out.write(form.getBytes("UTF-8"));
+            } finally {
+               out.close();
+            }
+         }
+         int status = conn.getResponseCode();
+         InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+         ByteArrayOutputStream body = new ByteArrayOutputStream();
+         if (in != null) {
+            try {
+               byte[] buffer = new byte[4096];
+               int n;
+               while ((n = in.read(buffer)) > 0)
+                  body.write(buffer, 0, n);
+            } finally {
+               in.close();
+            }
+         }
+         return new String[] { String.valueOf(status), body.toString("UTF-8") };
+      } finally {
+         conn.disconnect();
+      }
+   }//end call
+
+   public static void main (String[] args) {
+      if (args.length < 1 || args.length > 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] [-Dsmoke.userId=2] [-Dsmoke.storeId=1] [-Dsmoke.managerId=25] " +
+            RetailHttpClient.class.getName () +
+            " <base url, e.g. http://localhost:8080> [concurrent requests] [requests]");
+         return;
+      }//end if
+
+      final RetailHttpClient client = new RetailHttpClient(args[0]);
+      final int userId = Integer.getInteger("smoke.userId", 2);
+      final int storeId = Integer.getInteger("smoke.storeId", 1);
+      int managerId = Integer.getInteger("smoke.managerId", 25);
+      int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+      int requests = args.length > 2 ? Integer.parseInt(args[2]) : 10 * concurrency;
+
+      try {
+         String[][] calls = {
+            { "GET", "/health", null },
+            { "GET", "/stores?userId=" + userId, null },
+            { "GET", "/products?storeId=" + storeId, null },
+            { "GET", "/orders?userId=" + userId, null },
+            { "GET", "/reports/popular-products?managerId=" + managerId, null },
+            { "GET", "/reports/popular-customers?managerId=" + managerId, null },
+            { "GET", "/reports/updates?managerId=" + managerId, null },
+            { "GET", "/products?storeId=abc", null }
+         };
+         for (String[] c : calls) {
+            String[] answer = client.call(c[0], c[1], c[2]);
+            String body = answer[1].length() > 200 ? answer[1].substring(0, 200) + "..." : answer[1];
+            System.out.println(c[0] + " " + c[1] + " -> " + answer[0] + " " + body);
+         }
+
+         // concurrent browsing, one (virtual when available) thread per request in flight
+         ExecutorService executor = RetailHttpServer.newRequestExecutor();
+         final AtomicLong failures = new AtomicLong();
+         List<Future<Void>> results = new ArrayList<Future<Void>>();
+         long start = System.nanoTime();
+         for (int i = 0; i < requests; ++i) {
+            final String path = i % 2 == 0 ? "/products?storeId=" + storeId : "/stores?userId=" + userId;
+            results.add(executor.submit(new Callable<Void>() {
+               public Void call() {
+                  try {
+                     if (!"200".equals(client.call("GET", path, null)[0])) failures.incrementAndGet();
+                  } catch (IOException e) {
+                     failures.incrementAndGet();
+                  }
+                  return null;
+               }
+            }));
+            // keep at most `concurrency` requests in flight
+            if (results.size() >= concurrency) {
+               for (Future<Void> f : results) f.get();
+               results.clear();
+            }
+         }
+         for (Future<Void> f : results) f.get();
+         executor.shutdown();
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.println(String.format(Locale.US, "%d requests, up to %d concurrent: %.1f requests/s, %d failed",
+                                          requests, concurrency, requests / seconds, failures.get()));
+         System.out.println("GET /health -> " + client.call("GET", "/health", null)[1]);
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+}//end RetailHttpClient
@@ -0,0 +1,378 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class serves the RetailService operations as JSON over HTTP with
+ * the JDK's built-in server:
+ *
+ *    GET  /stores?userId=                   stores within 30 miles
+ *    GET  /products?storeId=                products of a store
+ *    POST /orders  userId, storeId, product, units
+ *    GET  /orders?userId=[&amp;limit=]          recent orders, at most MAX_LIMIT
+ *    GET  /reports/popular-products?managerId=
+ *    GET  /reports/popular-customers?managerId=
+ *    GET  /reports/updates?managerId=
+ *    GET  /reports/store-orders?managerId=[&amp;limit=][&amp;offset=]
+ *                                           a page of the stores' orders, most recent first
+ *    GET  /health                           connection pool and cache metrics
+ *
+ * Every request runs on its own virtual thread when the JVM has them
+ * (Java 21+), so the number of requests in flight is not limited by a
+ * thread pool; older JVMs fall back to a cached thread pool.  A request
+ * holds a pooled connection only while its statements run.  Requests
+ * queue for the connections on a fair semaphore, which parks virtual
+ * threads instead of pinning them the way waiting inside the pool's
+ * monitor would.  The semaphore leaves out the connections the session's
+ * background jobs may hold (see Retail.getBackgroundConnections), so an
+ * admitted request does not time out inside the pool.
+ *
+ * There is no authentication: /reports/* trusts whatever managerId the
+ * query string names and returns that manager's customers' names, and
+ * /orders does the same with userId.  Serve it only to trusted clients.
+ *
+ */
+public class RetailHttpServer {
+
+   // how long a request waits for a database connection before a 503
+   private static final long CONNECTION_WAIT_MILLIS = Long.getLong("http.connectionWaitMillis", 10000L);
+
+   // the most rows a single page may ask for
+   static final int MAX_LIMIT = Integer.getInteger("http.maxLimit", 1000);
+
+   private final RetailService service;
+   private final Retail esql;
+   private final HttpServer server;
+   private final ExecutorService executor;
+   private final Semaphore connections;
+
+   /**
+    * Creates a server; call start() to accept requests
+    *
+    * @param esql the database session whose pool and service are shared by every request
+    * @param port the TCP port to listen on
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public RetailHttpServer(Retail esql, int port) throws IOException {
+      this.esql = esql;
+      this.service = esql.getService ();
+      this.connections = new Semaphore(Math.max(1, esql.getPool ().getMaxSize () - esql.getBackgroundConnections ()), true);
+      this.executor = newRequestExecutor();
+      this.server = HttpServer.create(new InetSocketAddress(port), Integer.getInteger("http.backlog", 1024));
+      this.server.setExecutor(executor);
+
+      route("/stores", new Route() {
+         String handle(String method, Map<String, String> p) throws SQLException {
+            return Json.array(service.findStoresNear(intParam(p, "userId")));
+         }
+      });
+      route("/products", new Route() {
+         String handle(String method, Map<String, String> p) throws SQLException {
+            return Json.array(service.findProducts(intParam(p, "storeId")));
+         }
+      });
+      route("/orders", new Route() {
+         String handle(String method, Map<String, String> p) throws SQLException {
+            if ("POST".equalsIgnoreCase(method))
+               return Json.object(service.placeOrder(intParam(p, "userId"), intParam(p, "storeId"),
+                                                     param(p, "product"), intParam(p, "units")));
+            return Json.array(service.findRecentOrders(intParam(p, "userId"), limitParam(p, 5)));
+         }
+      });
+      route("/reports/popular-products", new Route() {
+         String handle(String method, Map<String, String> p) throws SQLException {
+            return Json.array(service.findPopularProducts(intParam(p, "managerId"), 5));
+         }
+      });
+      route("/reports/popular-customers", new Route() {
+         String handle(String method, Map<String, String> p) throws SQLException {
+            return Json.array(service.findPopularCustomers(intParam(p, "managerId"), 5));
+         }
+      });
+      route("/reports/updates", new Route() {
+         String handle(String method, Map<String, String> p) throws SQLException {
+            return Json.array(service.findRecentUpdates(intParam(p, "managerId"), 5));
+         }
+      });
+      route("/reports/store-orders", new Route() {
+         String handle(String method, Map<String, String> p) throws SQLException {
+            return Json.array(service.findStoreOrders(intParam(p, "managerId"), limitParam(p, 100),
+                                                      p.containsKey("offset") ? Math.max(0, intParam(p, "offset")) : 0));
+         }
+      });
+      server.createContext("/health", new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            ConnectionPool pool = RetailHttpServer.this.esql.getPool ();
+            send(exchange, 200, "{\"pool\": " + Json.string(pool.toString()) +
+                                ", \"waitingForConnection\": " + connections.getQueueLength() +
+                                ", \"caches\": " + Json.string(String.valueOf(Retail.METRICS.getCaches())) + "}");
+         }
+      });
+   }//end RetailHttpServer
+
+   public void start() {
+      server.start();
+   }
+
+   /**
+    * Stops accepting requests, waits up to delaySeconds for the ones in
+    * flight and stops the request threads.
+    */
+   public void stop(int delaySeconds) {
+      server.stop(delaySeconds);
+      executor.shutdown();
+   }
+
+   /*
+    * One virtual thread per request when Executors has them; looked up by
+    * reflection so the server still builds for Java 7.
+    */
+   static ExecutorService newRequestExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (Exception e) {
+         return Executors.newCachedThreadPool();
+      }
+   }
+
+   /**
+    * A JSON endpoint: turns the request parameters into a response body.
+    * Bad or missing parameters are answered with 400, database errors
+    * and any other failure with 500.
+    */
+   abstract static class Route {
+      abstract String handle(String method, Map<String, String> params) throws SQLException;
+   }
+
+   private void route(String path, final Route route) {
+      server.createContext(path, new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            int status = 200;
+            String body;
+            try {
+               Map<String, String> params = params(exchange);
+               if (!connections.tryAcquire(CONNECTION_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                  send(exchange, 503, error("Timed out waiting for a database connection"));
+                  return;
+               }
+               try {
+                  body = route.handle(exchange.getRequestMethod(), params);
+               } finally {
+                  connections.release();
+               }
+            } catch (IllegalArgumentException e) {
+               status = 400;
+               body = error(e.getMessage());
+            } catch (SQLException e) {
+               status = 500;
+               body = error(e.getMessage());
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               status = 503;
+               body = error("Interrupted");
+            } catch (RuntimeException e) {
+               // a bug in a route must still answer the client
+               System.err.println("Request " + exchange.getRequestURI() + " failed: " + e);
+               status = 500;
+               body = error(String.valueOf(e));
+            }
+            send(exchange, status, body);
+         }
+      });
+   }//end route
+
+   /*
+    * Query string parameters, plus the form-encoded body of a POST
+    */
+   private static Map<String, String> params(HttpExchange exchange) throws IOException {
+      Map<String, String> params = new HashMap<String, String>();
+      parse(exchange.getRequestURI().getRawQuery(), params);
+      if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+         InputStream in = exchange.getRequestBody();
+         ByteArrayOutputStream body = new ByteArrayOutputStream();
+         byte[] buffer = new byte[4096];
+         int n;
+         while ((n = in.read(buffer)) > 0)
+            body.write(buffer, 0, n);
+         parse(body.toString("UTF-8"), params);
+      }
+      return params;
+   }//end params
+
+   private static void parse(String query, Map<String, String> params) throws IOException {
+      if (query == null || query.isEmpty()) return;
+      for (String pair : query.split("&")) {
+         int eq = pair.indexOf('=');
+         if (eq < 0) continue;
+         params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+      }
+   }
+
+   static String param(Map<String, String> params, String name) {
+      String value = params.get(name);
+      if (value == null || value.isEmpty()) throw new IllegalArgumentException("Missing parameter " + name);
+      return value;
+   }
+
+   static int intParam(Map<String, String> params, String name) {
+      try {
+         return Integer.parseInt(param(params, name));
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Parameter " + name + " must be an integer");
+      }
+   }
+
+   // the page size asked for, within 1..MAX_LIMIT
+   static int limitParam(Map<String, String> params, int defaultLimit) {
+      int limit = params.containsKey("limit") ? intParam(params, "limit") : defaultLimit;
+      return Math.max(1, Math.min(limit, MAX_LIMIT));
+   }
+
+   private static String error(String message) {
+      return "{\"error\": " + Json.string(message) + "}";
+   }
+
+   private static void send(HttpExchange exchange, int status, String body) throws IOException {
+      byte[] bytes = body.getBytes("UTF-8");
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      OutputStream out = exchange.getResponseBody();
+      try {
+         out.write(bytes);
+      } finally {
+         out.close();
+      }
+   }//end send
+
+   /**
+    * Writes the Retail row types as JSON.
+    */
+   static class Json {
+
+      static String string(String s) {
+         if (s == null) return "null";
+         StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+         for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            switch (c) {
+               case '"': sb.append("\\\""); break;
+               case '\\': sb.append("\\\\"); break;
+               case '\n': sb.append("\\n"); break;
+               case '\r': sb.append("\\r"); break;
+               case '\t': sb.append("\\t"); break;
+               default:
+                  if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                  else sb.append(c);
+            }
+         }
+         return sb.append('"').toString();
+      }
+
+      static String array(List<?> rows) {
+         StringBuilder sb = new StringBuilder("[");
+         for (int i = 0; i < rows.size(); ++i)
+            sb.append(i == 0 ? "" : ", ").append(object(rows.get(i)));
+         return sb.append(']').toString();
+      }
+
+      static String object(Object row) {
+         if (row instanceof Store) {
+            Store s = (Store) row;
+            return "{\"storeId\": " + s.storeId + ", \"name\": " + string(s.name) + ", \"latitude\": " + s.latitude +
+                   ", \"longitude\": " + s.longitude + ", \"managerId\": " + s.managerId +
+                   ", \"dateEstablished\": " + string(s.dateEstablished) + "}";
+         }
+         if (row instanceof Product) {
+            Product p = (Product) row;
+            return "{\"storeId\": " + p.storeId + ", \"productName\": " + string(p.productName) +
+                   ", \"numberOfUnits\": " + p.numberOfUnits + ", \"pricePerUnit\": " + p.pricePerUnit + "}";
+         }
+         if (row instanceof Order) {
+            Order o = (Order) row;
+            return "{\"orderNumber\": " + o.orderNumber + ", \"customerId\": " + o.customerId + ", \"storeId\": " + o.storeId +
+                   ", \"storeName\": " + string(o.storeName) + ", \"productName\": " + string(o.productName) +
+                   ", \"unitsOrdered\": " + o.unitsOrdered +
+                   ", \"orderTime\": " + string(String.valueOf(o.orderTime)) + "}";
+         }
+         if (row instanceof OrderResult) {
+            OrderResult r = (OrderResult) row;
+            return "{\"status\": " + string(r.status.name()) + ", \"orderNumber\": " + r.orderNumber +
+                   ", \"unitsLeft\": " + r.unitsLeft + "}";
+         }
+         if (row instanceof Popularity) {
+            Popularity p = (Popularity) row;
+            return "{\"storeId\": " + p.storeId + ", \"customerId\": " + p.customerId + ", \"name\": " + string(p.name) +
+                   ", \"numOrders\": " + p.numOrders + "}";
+         }
+         if (row instanceof ProductUpdate) {
+            ProductUpdate u = (ProductUpdate) row;
+            return "{\"updateNumber\": " + u.updateNumber + ", \"managerId\": " + u.managerId + ", \"storeId\": " + u.storeId +
+                   ", \"productName\": " + string(u.productName) + ", \"updatedOn\": " + string(String.valueOf(u.updatedOn)) + "}";
+         }
+         if (row instanceof StoreOrder) {
+            StoreOrder o = (StoreOrder) row;
+            return "{\"orderNumber\": " + o.orderNumber + ", \"customerName\": " + string(o.customerName) +
+                   ", \"storeId\": " + o.storeId + ", \"productName\": " + string(o.productName) +
+                   ", \"orderTime\": " + string(String.valueOf(o.orderTime)) + "}";
+         }
+         return string(String.valueOf(row));
+      }//end object
+   }//end Json
+
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] [-Dhttp.port=<port>] " +
+            RetailHttpServer.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      try {
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         final Retail esql = new Retail (args[0], args[1], args[2], "");
+         final RetailHttpServer server = new RetailHttpServer(esql, Integer.getInteger("http.port", 8080));
+         Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+               server.stop(2);
+               esql.cleanup ();
+            }
+         });
+         server.start();
+         System.out.println("Listening on port " + Integer.getInteger("http.port", 8080) +
+                            (server.executor.getClass().getName().contains("ThreadPerTask") ? " (virtual threads)" : ""));
+      } catch (Exception e) {
+         System.err.println (e.getMessage ());
+      }
+   }//end main
+}//end RetailHttpServer
@@ -0,0 +1,409 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class is the headless API of the retail application: every
+ * operation of the console menu as a typed method that takes the acting
+ * user as a parameter and returns its result instead of printing it.
+ *
+ * The service keeps no state of its own and Retail borrows a pooled
+ * connection per statement (or per transaction), so one instance can be
+ * called from any number of threads at once.
+ *
+ * Every operation that reaches the database is timed in Retail.METRICS,
+ * next to the statements it runs.
+ *
+ */
+public class RetailService {
+
+   /**
+    * Outcome of an operation that changes data.
+    */
+   public enum Status {
+      OK,
+      INVALID_INPUT,
+      ALREADY_EXISTS,
+      NOT_AUTHORIZED,
+      NO_SUCH_USER,
+      NO_SUCH_STORE,
+      NOT_YOUR_STORE,
+      NO_SUCH_PRODUCT,
+      NO_SUCH_WAREHOUSE
+   }
+
+   private final Retail esql;
+
+   // the orders of a manager's stores with their customers' names, see StoreOrder
+   private static final String STORE_ORDERS_SQL =
+      "SELECT o.orderNumber, u.name, o.storeID, o.productName, o.orderTime FROM ORDERS o, USERS u " +
+      "WHERE " + Retail.managedBy ("o.storeID") + " AND o.customerID = u.userID";
+
+   // one row holding every precondition of a manager action, see ManagerVerdict
+   private static final String MANAGER_ACTION_SQL =
+      "WITH u AS (SELECT type FROM USERS WHERE userID = ?), " +
+      "s AS (SELECT managerID FROM STORE WHERE storeID = ?) " +
+      "SELECT ? AS userID, (SELECT type FROM u) AS type, " +
+      "EXISTS (SELECT 1 FROM s) AS storeExists, (SELECT managerID FROM s) AS managerID, " +
+      "EXISTS (SELECT 1 FROM PRODUCT WHERE storeID = ? AND productName = ?) AS productExists, " +
+      "EXISTS (SELECT 1 FROM WAREHOUSE WHERE warehouseID = ?) AS warehouseExists";
+
+   // sets the stock and price of a product and logs the change, in one statement
+   private static final String UPDATE_PRODUCT_SQL =
+      "WITH changed AS (UPDATE PRODUCT SET numberOfUnits = ?, pricePerUnit = ? " +
+      "WHERE storeID = ? AND productName = ? RETURNING storeID, productName) " +
+      "INSERT INTO PRODUCTUPDATES (managerID, storeID, productName, updatedOn) " +
+      "SELECT ?, storeID, productName, CURRENT_TIMESTAMP FROM changed";
+
+   // records the request if the product exists; the supply_requests_stock trigger adds the units to the stock
+   private static final String SUPPLY_REQUEST_SQL =
+      "INSERT INTO ProductSupplyRequests(managerID, warehouseID, storeID, productName, unitsRequested) " +
+      "SELECT ?, ?, storeID, productName, ? FROM PRODUCT WHERE storeID = ? AND productName = ?";
+
+   /**
+    * Creates a service on top of a Retail session
+    *
+    * @param esql the database access layer; only its pool and caches are used
+    */
+   public RetailService(Retail esql) {
+      this.esql = esql;
+   }
+
+   /*
+    * Users
+    */
+
+   /**
+    * Checks a name and password.
+    *
+    * @return the user's profile, or null if the name or password is wrong
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public UserProfile logIn(String name, String password) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("logIn");
+      try {
+         return esql.logIn (name, password);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }
+
+   /**
+    * Creates a customer account.
+    *
+    * @return OK, INVALID_INPUT for an empty name or password or a location
+    *         outside [0, 100], or ALREADY_EXISTS
+    * @throws java.sql.SQLException when failed to execute the statement
+    */
+   public Status createUser(String name, String password, double latitude, double longitude) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("createUser");
+      try {
+         if (name.isEmpty() || password.isEmpty() || !isCoordinate(latitude) || !isCoordinate(longitude))
+            return Status.INVALID_INPUT;
+         if (esql.executeExists ("SELECT 1 FROM USERS WHERE name = ? AND password = ?", name, password))
+            return Status.ALREADY_EXISTS;
+         esql.executeUpdate ("INSERT INTO USERS (name, password, latitude, longitude, type) VALUES (?, ?, ?, ?, ?)",
+                             name, password, latitude, longitude, "customer");
+         return Status.OK;
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }//end createUser
+
+   public UserProfile getUser(int userId) throws SQLException {
+      return esql.getUserProfile (userId);
+   }
+
+   // managers and admins may use the manager functions
+   public boolean isManager(int userId) throws SQLException {
+      UserProfile profile = esql.getUserProfile (userId);
+      return profile != null && !profile.isCustomer();
+   }
+
+   public boolean isAdmin(int userId) throws SQLException {
+      UserProfile profile = esql.getUserProfile (userId);
+      return profile != null && profile.isAdmin();
+   }
+
+   /**
+    * Lets an admin change another user's name, location and type.
+    *
+    * @return OK, NOT_AUTHORIZED, NO_SUCH_USER or INVALID_INPUT
+    * @throws java.sql.SQLException when failed to execute the statement
+    */
+   public Status updateUser(int adminId, int userId, String name, double latitude, double longitude, String type)
+         throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("updateUser");
+      try {
+         if (!isAdmin(adminId)) return Status.NOT_AUTHORIZED;
+         if (name.isEmpty() || !isCoordinate(latitude) || !isCoordinate(longitude) || !isUserType(type))
+            return Status.INVALID_INPUT;
+         int rows = esql.executeUpdate ("UPDATE USERS SET name = ?, latitude = ?, longitude = ?, type = ? WHERE userID = ?",
+                                        name, latitude, longitude, type, userId);
+         Retail.invalidateUser (userId);
+         return rows == 0 ? Status.NO_SUCH_USER : Status.OK;
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }//end updateUser
+
+   public boolean userExists(int userId) throws SQLException {
+      return esql.executeExists ("SELECT 1 FROM USERS WHERE userID = ?", userId);
+   }
+
+   public static boolean isCoordinate(double value) {
+      return value >= 0 && value <= 100;
+   }
+
+   public static boolean isUserType(String type) {
+      return type.equals("customer") || type.equals("manager") || type.equals("admin");
+   }
+
+   /*
+    * Customers
+    */
+
+   public boolean storeExists(int storeId) throws SQLException {
+      return esql.executeExists ("SELECT 1 FROM STORE WHERE storeID = ?", storeId);
+   }
+
+   public List<Store> findStoresNear(int userId) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("findStoresNear");
+      try {
+         return esql.findStoresNear (userId);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }
+
+   public List<Product> findProducts(int storeId) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("findProducts");
+      try {
+         return esql.findProducts (storeId);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }
+
+   public OrderResult placeOrder(int customerId, int storeId, String productName, int units) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("placeOrder");
+      try {
+         return esql.placeOrder (customerId, storeId, productName, units);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }
+
+   public List<Order> findRecentOrders(int customerId, int limit) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("findRecentOrders");
+      try {
+         return esql.findRecentOrders (customerId, limit);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }
+
+   /*
+    * Managers
+    */
+
+   public List<Integer> getManagedStores(int managerId) throws SQLException {
+      return esql.getManagedStores (managerId);
+   }
+
+   public boolean hasProduct(int storeId, String productName) throws SQLException {
+      return esql.executeExists ("SELECT 1 FROM PRODUCT WHERE storeID = ? AND productName = ?",
+                                 storeId, productName);
+   }
+
+   public boolean warehouseExists(int warehouseId) throws SQLException {
+      return esql.executeExists ("SELECT 1 FROM WAREHOUSE WHERE warehouseID = ?", warehouseId);
+   }
+
+   /**
+    * Reads every precondition of a manager action on a product with one
+    * query: the user's role, the store and its manager, the product and,
+    * for supply requests, the warehouse.
+    *
+    * @param warehouseId the warehouse the action names, or -1 if none
+    * @return the verdict; never null
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public ManagerVerdict checkManagerAction(int userId, int storeId, String productName, int warehouseId)
+         throws SQLException {
+      return esql.executeQueryForObject (MANAGER_ACTION_SQL, ManagerVerdict.MAPPER,
+                                         userId, userId, storeId, storeId, productName, warehouseId);
+   }//end checkManagerAction
+
+   /**
+    * Sets the stock and price of a product and logs the change in
+    * ProductUpdates.  The preconditions are checked with one query and the
+    * change is made with one atomic statement, so the action costs two
+    * round trips.
+    *
+    * @return OK, NOT_AUTHORIZED, NO_SUCH_STORE, NOT_YOUR_STORE or NO_SUCH_PRODUCT
+    * @throws java.sql.SQLException when failed to execute the statements; nothing is changed then
+    */
+   public Status updateProduct(int managerId, int storeId, String productName, int units, double price)
+         throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("updateProduct");
+      try {
+         if (esql.usesProcedures ())
+            return call("SELECT status FROM update_product(?, ?, ?, ?, ?)", managerId, storeId, productName, units, price);
+
+         Status status = checkManagerAction(managerId, storeId, productName, -1).status(true, false);
+         if (status != Status.OK) return status;
+
+         // the product may have been removed since the check
+         int rows = esql.executeUpdate (UPDATE_PRODUCT_SQL, units, price, storeId, productName, managerId);
+         return rows == 0 ? Status.NO_SUCH_PRODUCT : Status.OK;
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }//end updateProduct
+
+   public List<ProductUpdate> findRecentUpdates(int managerId, int limit) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("findRecentUpdates");
+      try {
+         return esql.executeQueryForList ("SELECT * FROM PRODUCTUPDATES WHERE " + Retail.managedBy ("storeID") + " " +
+                                          "ORDER BY updatedOn DESC LIMIT ?", ProductUpdate.MAPPER, managerId, limit);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }//end findRecentUpdates
+
+   /**
+    * Streams every order of the manager's stores to the handler, one
+    * StoreOrder row at a time, so the whole history is never held in memory.
+    *
+    * @return the number of orders handled
+    */
+   public int forEachStoreOrder(int managerId, RowHandler handler) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("forEachStoreOrder");
+      try {
+         return esql.executeQueryForEach (STORE_ORDERS_SQL, handler, managerId);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }//end forEachStoreOrder
+
+   /**
+    * Returns one page of the orders of the manager's stores, most recent first.
+    */
+   public List<StoreOrder> findStoreOrders(int managerId, int limit, int offset) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("findStoreOrders");
+      try {
+         return esql.executeQueryForList (STORE_ORDERS_SQL + " ORDER BY o.orderTime DESC, o.orderNumber DESC LIMIT ? OFFSET ?",
+                                          StoreOrder.MAPPER, managerId, limit, offset);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }//end findStoreOrders
+
+   public List<Popularity> findPopularProducts(int managerId, int limit) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("findPopularProducts");
+      try {
+         return esql.findPopularProducts (managerId, limit);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }
+
+   public List<Popularity> findPopularCustomers(int managerId, int limit) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("findPopularCustomers");
+      try {
+         return esql.findPopularCustomers (managerId, limit);
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }
+
+   /**
+    * Records a supply request from a warehouse and adds the requested units
+    * to the store's stock.  The preconditions are checked with one query
+    * and the change is made with one atomic statement.
+    *
+    * @return OK, NOT_AUTHORIZED, NO_SUCH_STORE, NOT_YOUR_STORE, NO_SUCH_PRODUCT or NO_SUCH_WAREHOUSE
+    * @throws java.sql.SQLException when failed to execute the statements; nothing is changed then
+    */
+   public Status placeSupplyRequest(int managerId, int storeId, String productName, int units, int warehouseId)
+         throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("placeSupplyRequest");
+      try {
+         if (esql.usesProcedures ())
+            return call("SELECT status FROM place_supply_request(?, ?, ?, ?, ?)", managerId, storeId, productName, units, warehouseId);
+
+         Status status = checkManagerAction(managerId, storeId, productName, warehouseId).status(false, true);
+         if (status != Status.OK) return status;
+
+         int rows = esql.executeUpdate (SUPPLY_REQUEST_SQL, managerId, warehouseId, units, storeId, productName);
+         return rows == 0 ? Status.NO_SUCH_PRODUCT : Status.OK;
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }//end placeSupplyRequest
+
+   /*
+    * Runs a write function whose only OUT parameter is the name of a Status
+    */
+   private Status call(String query, Object... params) throws SQLException {
+      return Status.valueOf(esql.executeQueryForObject (query, RowMapper.STRING, params));
+   }
+
+   /*
+    * Admins
+    */
+
+   public Status rebuildPopularity(int adminId) throws SQLException {
+      Metrics.Span span = Retail.METRICS.begin ("rebuildPopularity");
+      try {
+         if (!isAdmin(adminId)) return Status.NOT_AUTHORIZED;
+         esql.rebuildPopularity ();
+         return Status.OK;
+      } catch (SQLException e) {
+         throw span.fail (e);
+      } finally {
+         span.end ();
+      }
+   }
+}//end RetailService
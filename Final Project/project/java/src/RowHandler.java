@@ -0,0 +1,32 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This interface receives the rows of a query one at a time, so that a
+ * result never has to be held in memory as a whole.
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * Called once per row, with the result set positioned on that row.  The
+    * result set must not be advanced or kept after the call returns.
+    *
+    * @param rs the result set, positioned on the current row
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   void handle(ResultSet rs) throws SQLException;
+}//end RowHandler
@@ -0,0 +1,69 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This interface turns the current row of a result set into a typed value,
+ * reading each column with the matching getInt/getDouble/getTimestamp call
+ * instead of going through a String.
+ *
+ */
+public interface RowMapper<T> {
+
+   /**
+    * Maps the row the result set is positioned on.
+    *
+    * @param rs the result set, positioned on the current row
+    * @return the value for this row
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   T map(ResultSet rs) throws SQLException;
+
+   // maps the first column as an int
+   RowMapper<Integer> INTEGER = new RowMapper<Integer>() {
+      public Integer map(ResultSet rs) throws SQLException {
+         return rs.getInt(1);
+      }
+   };
+
+   // maps the first column as a long
+   RowMapper<Long> LONG = new RowMapper<Long>() {
+      public Long map(ResultSet rs) throws SQLException {
+         return rs.getLong(1);
+      }
+   };
+
+   // maps the first column as a double
+   RowMapper<Double> DOUBLE = new RowMapper<Double>() {
+      public Double map(ResultSet rs) throws SQLException {
+         return rs.getDouble(1);
+      }
+   };
+
+   // maps the first column as a trimmed string; char(n) columns come back blank padded
+   RowMapper<String> STRING = new RowMapper<String>() {
+      public String map(ResultSet rs) throws SQLException {
+         String value = rs.getString(1);
+         return value == null ? null : value.trim();
+      }
+   };
+
+   // maps the first column as a boolean
+   RowMapper<Boolean> BOOLEAN = new RowMapper<Boolean>() {
+      public Boolean map(ResultSet rs) throws SQLException {
+         return rs.getBoolean(1);
+      }
+   };
+}//end RowMapper
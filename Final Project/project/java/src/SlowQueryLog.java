@@ -0,0 +1,220 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * This class logs every statement that runs for longer than a threshold,
+ * with its parameters, duration and row count.  The first time a query
+ * shape, i.e. an SQL string with ? placeholders, is slow, its plan is
+ * captured in the background with EXPLAIN (ANALYZE, BUFFERS) on a
+ * connection of its own.  The EXPLAIN runs inside a transaction that is
+ * rolled back, so INSERT, UPDATE and DELETE statements change nothing.
+ * Sequence values they draw are not given back, though.
+ *
+ * Statements that mention the password column are logged without their
+ * parameters and are never explained, because a plan shows the values.
+ *
+ */
+public class SlowQueryLog {
+
+   // statements running at least this long are logged; a negative value disables the log
+   static final long THRESHOLD_MILLIS = Long.getLong("retail.slowQuery.thresholdMillis", 500L);
+
+   // where slow statements and their plans are appended
+   static final String LOG_FILE = System.getProperty("retail.slowQuery.log", "slow-queries.log");
+   static final String PLAN_FILE = System.getProperty("retail.slowQuery.plans", "slow-query-plans.log");
+
+   // set -Dretail.slowQuery.explain=false to log without capturing plans
+   static final boolean EXPLAIN = Boolean.parseBoolean(System.getProperty("retail.slowQuery.explain", "true"));
+
+   // distinct query shapes remembered as already explained
+   private static final int MAX_SHAPES = 10000;
+
+   // plans waiting to be captured; further slow shapes are logged without one
+   private static final int MAX_PENDING = 16;
+
+   // a FROM that reads a function, such as SELECT * FROM place_order(...)
+   private static final Pattern FUNCTION_SCAN = Pattern.compile("\\bFROM\\s+[A-Z_][A-Z0-9_.]*\\s*\\(");
+
+   private final long thresholdNanos = THRESHOLD_MILLIS < 0 ? -1 : THRESHOLD_MILLIS * 1000000L;
+   private final ConcurrentHashMap<String, Boolean> explained = new ConcurrentHashMap<String, Boolean>();
+   private ThreadPoolExecutor explainer = null;
+   private PrintWriter log = null;
+
+   /**
+    * Logs a finished statement if it was slow, and captures its plan the
+    * first time its shape is slow.
+    *
+    * @param pool where the EXPLAIN borrows its connection from
+    * @param sql the statement, with ? placeholders
+    * @param params the values bound to the placeholders, or null for a batch
+    * @param nanos how long the statement ran
+    * @param rows the rows returned or changed, or -1 when the statement failed
+    */
+   public void record(ConnectionPool pool, String sql, Object[] params, long nanos, long rows) {
+      if (thresholdNanos < 0 || nanos < thresholdNanos) return;
+
+      boolean secret = sql.toLowerCase(Locale.US).contains("password");
+      String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date());
+      write(String.format(Locale.US, "%s %10.1f ms  rows=%d  shape=%08x  %s  params=%s",
+                          time, nanos / 1e6, rows, sql.hashCode(), sql,
+                          params == null ? "(batch)" : secret ? "(hidden)" : format(params)));
+
+      if (!EXPLAIN || params == null || secret || !isExplainable(sql)) return;
+      if (explained.size() >= MAX_SHAPES || explained.putIfAbsent(sql, Boolean.TRUE) != null) return;
+      explain(pool, sql, params.clone(), time);
+   }//end record
+
+   private synchronized void write(String entry) {
+      try {
+         if (log == null) log = new PrintWriter(new FileWriter(LOG_FILE, true));
+         log.println(entry);
+         log.flush();
+      } catch (IOException e) {
+         System.err.println("Slow query log failed: " + e.getMessage());
+      }
+   }
+
+   /*
+    * The capture of one plan, queued on the explainer thread
+    */
+   private class PlanCapture implements Runnable {
+      final ConnectionPool pool;
+      final String sql;
+      final Object[] params;
+      final String time;
+
+      PlanCapture(ConnectionPool pool, String sql, Object[] params, String time) {
+         this.pool = pool;
+         this.sql = sql;
+         this.params = params;
+         this.time = time;
+      }
+
+      public void run() {
+         String plan;
+         try {
+            plan = capturePlan(pool, sql, params);
+         } catch (SQLException e) {
+            plan = "EXPLAIN failed: " + e.getMessage() + "\n";
+            // let a later occurrence try again
+            explained.remove(sql);
+         }
+         writePlan(String.format("-- %s  shape=%08x  params=%s%n%s%n%s%n",
+                                 time, sql.hashCode(), format(params), sql, plan));
+      }
+   }//end PlanCapture
+
+   /*
+    * Queues the capture of a plan on the single explainer thread.  A capture
+    * dropped because the queue is full unmarks its shape, so that a later
+    * occurrence gets its plan.
+    */
+   private synchronized void explain(ConnectionPool pool, String sql, Object[] params, String time) {
+      if (explainer == null) {
+         explainer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(MAX_PENDING), new ThreadFactory() {
+               public Thread newThread(Runnable r) {
+                  Thread t = new Thread(r, "SlowQueryLog-explainer");
+                  t.setDaemon(true);
+                  return t;
+               }
+            }, new RejectedExecutionHandler() {
+               public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                  explained.remove(((PlanCapture) r).sql);
+               }
+            });
+      }
+      explainer.execute(new PlanCapture(pool, sql, params, time));
+   }//end explain
+
+   /*
+    * Runs EXPLAIN (ANALYZE, BUFFERS) on a connection of its own, in a
+    * transaction that is always rolled back
+    */
+   private static String capturePlan(ConnectionPool pool, String sql, Object[] params) throws SQLException {
+      ConnectionPool.PooledConnection conn = pool.borrow();
+      try {
+         conn.connection.setAutoCommit(false);
+         PreparedStatement stmt = conn.connection.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+         try {
+            for (int i = 0; i < params.length; ++i) {
+               if (params[i] == null) stmt.setNull(i + 1, Types.VARCHAR);
+               else stmt.setObject(i + 1, params[i]);
+            }
+            ResultSet rs = stmt.executeQuery();
+            StringBuilder plan = new StringBuilder();
+            while (rs.next())
+               plan.append(rs.getString(1)).append('\n');
+            rs.close();
+            return plan.toString();
+         } finally {
+            stmt.close();
+         }
+      } finally {
+         // the pool rolls back connections returned inside a transaction
+         pool.release(conn);
+      }
+   }//end capturePlan
+
+   private synchronized void writePlan(String entry) {
+      PrintWriter out = null;
+      try {
+         out = new PrintWriter(new FileWriter(PLAN_FILE, true));
+         out.print(entry);
+      } catch (IOException e) {
+         System.err.println("Slow query plan log failed: " + e.getMessage());
+      } finally {
+         if (out != null) out.close();
+      }
+   }
+
+   /*
+    * Only queries and DML can be explained.  A SELECT without FROM, such as
+    * SELECT rebuild_popularity(), has a one-line plan that tells nothing,
+    * and ANALYZE would run the whole function again; so does a SELECT from
+    * a function, such as SELECT * FROM place_order(...).
+    */
+   static boolean isExplainable(String sql) {
+      String text = sql.trim().toUpperCase(Locale.US);
+      if (text.startsWith("INSERT") || text.startsWith("UPDATE") || text.startsWith("DELETE")) return true;
+      return (text.startsWith("SELECT") || text.startsWith("WITH")) && text.contains(" FROM ")
+             && !FUNCTION_SCAN.matcher(text).find();
+   }
+
+   static String format(Object[] params) {
+      StringBuilder sb = new StringBuilder("[");
+      for (int i = 0; i < params.length; ++i) {
+         if (i > 0) sb.append(", ");
+         sb.append(params[i] instanceof String ? "'" + params[i] + "'" : String.valueOf(params[i]));
+      }
+      return sb.append(']').toString();
+   }
+}//end SlowQueryLog
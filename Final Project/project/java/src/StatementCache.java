@@ -0,0 +1,142 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the PreparedStatements of one physical connection, keyed
+ * by their SQL text (the query shape, with ? for every parameter).  Once the
+ * cache is full the least recently used statement is closed and evicted.
+ *
+ * The bundled pg73 driver substitutes the parameters into the SQL on the
+ * client unless a statement is switched to server-side prepare, in which
+ * case the server parses and plans it once and runs it with EXECUTE.  So
+ * cached statements are switched to it; without it only the statement
+ * objects are reused.  Newer drivers prepare on the server by themselves
+ * after a few executions.
+ *
+ */
+public class StatementCache {
+
+   // set -Dretail.serverPrepare=false to keep the driver's client-side parameter substitution
+   static final boolean SERVER_PREPARE = Boolean.parseBoolean(System.getProperty("retail.serverPrepare", "true"));
+
+   // connection the cached statements belong to
+   private final Connection _connection;
+
+   // maximum number of statements kept open on the connection
+   private final int maxSize;
+
+   // SQL text -> statement, in least to most recently used order
+   private final LinkedHashMap<String, PreparedStatement> statements;
+
+   // cache statistics
+   private long hits = 0;
+   private long misses = 0;
+   private long evictions = 0;
+
+   /**
+    * Creates an empty statement cache for a connection
+    *
+    * @param connection the physical connection to prepare statements on
+    * @param maxSize the maximum number of statements to keep open
+    */
+   public StatementCache(Connection connection, int maxSize) {
+      this._connection = connection;
+      this.maxSize = Math.max(1, maxSize);
+      this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= StatementCache.this.maxSize) return false;
+            evictions++;
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the cached statement for the given SQL, preparing and caching
+    * it on a miss.
+    *
+    * @param sql the SQL string, using ? for each parameter
+    * @return a prepared statement for the SQL
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public synchronized PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stmt = statements.get(sql);
+      if (stmt != null) {
+         hits++;
+         return stmt;
+      }
+      misses++;
+      stmt = _connection.prepareStatement(sql);
+      if (SERVER_PREPARE) useServerPrepare(stmt);
+      statements.put(sql, stmt);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Closes and forgets a single statement, e.g. after it failed.
+    *
+    * @param sql the SQL string the statement was prepared with
+    */
+   public synchronized void invalidate(String sql) {
+      closeQuietly(statements.remove(sql));
+   }
+
+   /**
+    * Closes every cached statement.
+    */
+   public synchronized void close() {
+      for (PreparedStatement stmt : statements.values())
+         closeQuietly(stmt);
+      statements.clear();
+   }//end close
+
+   public synchronized int size() { return statements.size(); }
+   public synchronized long getHits() { return hits; }
+   public synchronized long getMisses() { return misses; }
+   public synchronized long getEvictions() { return evictions; }
+
+   public synchronized String toString() {
+      return String.format("statements=%d hits=%d misses=%d evictions=%d",
+                           statements.size(), hits, misses, evictions);
+   }
+
+   /*
+    * Switches a statement to server-side prepare through the driver's
+    * PGStatement extension, looked up by reflection so that other drivers
+    * are left as they are
+    */
+   private static void useServerPrepare(PreparedStatement stmt) {
+      try {
+         Method method = stmt.getClass().getMethod("setUseServerPrepare", boolean.class);
+         method.invoke(stmt, Boolean.TRUE);
+      } catch (Exception e) {
+         // not a PostgreSQL statement; it stays prepared on the client.
+      }
+   }
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try {
+         if (stmt != null) stmt.close();
+      } catch (SQLException e) {
+         // ignored.
+      }
+   }
+}//end StatementCache
@@ -0,0 +1,50 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class holds one row of the Store table.
+ *
+ */
+public class Store {
+
+   public final int storeId;
+   public final String name;
+   public final double latitude;
+   public final double longitude;
+   public final int managerId;
+   public final String dateEstablished;
+
+   // maps the storeID, name, latitude, longitude, managerID and dateEstablished columns
+   public static final RowMapper<Store> MAPPER = new RowMapper<Store>() {
+      public Store map(ResultSet rs) throws SQLException {
+         return new Store(rs.getInt("storeID"), rs.getString("name").trim(), rs.getDouble("latitude"),
+                          rs.getDouble("longitude"), rs.getInt("managerID"), rs.getString("dateEstablished"));
+      }
+   };
+
+   public Store(int storeId, String name, double latitude, double longitude, int managerId, String dateEstablished) {
+      this.storeId = storeId;
+      this.name = name;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.managerId = managerId;
+      this.dateEstablished = dateEstablished;
+   }
+
+   public String toString() {
+      return storeId + "\t" + name + "\t" + latitude + "\t" + longitude + "\t" + managerId + "\t" + dateEstablished;
+   }
+}//end Store
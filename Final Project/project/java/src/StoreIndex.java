@@ -0,0 +1,260 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class is an in-memory uniform grid over the latitude/longitude of
+ * every Store, so that "stores near a user" can be answered without a round
+ * trip to the database.  Distances use the same euclidean formula as
+ * calculate_distance in create_tables.sql.
+ *
+ */
+public class StoreIndex {
+
+   private static final String STORE_COLUMNS =
+      "SELECT storeID, name, latitude, longitude, managerID, dateEstablished FROM STORE ";
+
+   // width and height of one grid cell
+   private final double cellSize;
+
+   // grid cell -> stores located in it, and storeID -> store
+   private final Map<Long, List<Store>> cells = new HashMap<Long, List<Store>>();
+   private final Map<Integer, Store> stores = new HashMap<Integer, Store>();
+
+   private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+   /**
+    * Creates an empty index
+    *
+    * @param cellSize width and height of one grid cell, e.g. the search radius
+    */
+   public StoreIndex(double cellSize) {
+      this.cellSize = cellSize;
+   }
+
+   /**
+    * Replaces the contents of the index with every row of Store.
+    *
+    * @param esql the database to read from
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public void load(Retail esql) throws SQLException {
+      List<Store> rows = esql.readStores(STORE_COLUMNS);
+      lock.writeLock().lock();
+      try {
+         cells.clear();
+         stores.clear();
+         for (Store s : rows) add(s);
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }//end load
+
+   /**
+    * Re-reads every row of Store and applies what changed since the last
+    * load or refresh: new stores are added, moved stores are re-filed under
+    * their new cell and deleted stores are dropped.
+    *
+    * @param esql the database to read from
+    * @return the number of stores added, changed or removed
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int refresh(Retail esql) throws SQLException {
+      List<Store> rows = esql.readStores(STORE_COLUMNS);
+      int changed = 0;
+      lock.writeLock().lock();
+      try {
+         Map<Integer, Store> gone = new HashMap<Integer, Store>(stores);
+         for (Store s : rows) {
+            Store old = gone.remove(s.storeId);
+            if (old == null || old.latitude != s.latitude || old.longitude != s.longitude
+                || old.managerId != s.managerId) {
+               add(s);
+               ++changed;
+            }
+         }
+         for (Store old : gone.values()) {
+            stores.remove(old.storeId);
+            cellOf(old.latitude, old.longitude, false).remove(old);
+            ++changed;
+         }
+      } finally {
+         lock.writeLock().unlock();
+      }
+      return changed;
+   }//end refresh
+
+   /**
+    * Adds or replaces one store, e.g. after it was inserted or moved.
+    */
+   public void put(Store store) {
+      lock.writeLock().lock();
+      try {
+         add(store);
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Removes one store, e.g. after it was deleted.
+    */
+   public void remove(int storeId) {
+      lock.writeLock().lock();
+      try {
+         Store old = stores.remove(storeId);
+         if (old != null) cellOf(old.latitude, old.longitude, false).remove(old);
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Returns the store with the given ID, or null if it is not indexed.
+    */
+   public Store get(int storeId) {
+      lock.readLock().lock();
+      try {
+         return stores.get(storeId);
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   public int size() {
+      lock.readLock().lock();
+      try {
+         return stores.size();
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * Returns every store within radius of a location, nearest first.
+    */
+   public List<Store> within(final double latitude, final double longitude, double radius) {
+      List<Store> result = new ArrayList<Store>();
+      lock.readLock().lock();
+      try {
+         long minRow = cell(latitude - radius), maxRow = cell(latitude + radius);
+         long minCol = cell(longitude - radius), maxCol = cell(longitude + radius);
+         for (long row = minRow; row <= maxRow; ++row) {
+            for (long col = minCol; col <= maxCol; ++col) {
+               List<Store> cell = cells.get(key(row, col));
+               if (cell == null) continue;
+               for (Store s : cell)
+                  if (distance(latitude, longitude, s) <= radius) result.add(s);
+            }
+         }
+      } finally {
+         lock.readLock().unlock();
+      }
+      Collections.sort(result, byDistance(latitude, longitude));
+      return result;
+   }//end within
+
+   /**
+    * Returns the k stores nearest to a location, nearest first.  The search
+    * visits rings of grid cells around the location and stops once no
+    * unvisited cell can hold a store closer than the k-th one found.
+    */
+   public List<Store> nearest(final double latitude, final double longitude, int k) {
+      // max-heap on distance holding the best k stores so far
+      PriorityQueue<Store> best = new PriorityQueue<Store>(Math.max(1, k),
+         Collections.reverseOrder(byDistance(latitude, longitude)));
+      if (k <= 0) return new ArrayList<Store>();
+      lock.readLock().lock();
+      try {
+         if (stores.isEmpty()) return new ArrayList<Store>();
+         long row0 = cell(latitude), col0 = cell(longitude);
+         for (long ring = 0; ; ++ring) {
+            for (long row = row0 - ring; row <= row0 + ring; ++row) {
+               for (long col = col0 - ring; col <= col0 + ring; ++col) {
+                  if (Math.max(Math.abs(row - row0), Math.abs(col - col0)) != ring) continue;
+                  List<Store> cell = cells.get(key(row, col));
+                  if (cell == null) continue;
+                  for (Store s : cell) {
+                     if (best.size() < k) {
+                        best.add(s);
+                     } else if (distance(latitude, longitude, s) < distance(latitude, longitude, best.peek())) {
+                        best.poll();
+                        best.add(s);
+                     }
+                  }
+               }
+            }
+            // every unvisited cell is at least ring * cellSize away
+            if (best.size() == Math.min(k, stores.size())
+                && (best.size() < k || distance(latitude, longitude, best.peek()) <= ring * cellSize))
+               break;
+         }//end for
+      } finally {
+         lock.readLock().unlock();
+      }
+      List<Store> result = new ArrayList<Store>(best);
+      Collections.sort(result, byDistance(latitude, longitude));
+      return result;
+   }//end nearest
+
+   /*
+    * Adds a store; the caller holds the write lock
+    */
+   private void add(Store s) {
+      Store old = stores.put(s.storeId, s);
+      if (old != null) cellOf(old.latitude, old.longitude, false).remove(old);
+      cellOf(s.latitude, s.longitude, true).add(s);
+   }
+
+   private List<Store> cellOf(double latitude, double longitude, boolean create) {
+      Long key = key(cell(latitude), cell(longitude));
+      List<Store> cell = cells.get(key);
+      if (cell == null) {
+         cell = new ArrayList<Store>();
+         if (create) cells.put(key, cell);
+      }
+      return cell;
+   }
+
+   private long cell(double coordinate) {
+      return (long) Math.floor(coordinate / cellSize);
+   }
+
+   private static long key(long row, long col) {
+      return (row << 32) ^ (col & 0xffffffffL);
+   }
+
+   private static double distance(double latitude, double longitude, Store s) {
+      double t1 = (latitude - s.latitude) * (latitude - s.latitude);
+      double t2 = (longitude - s.longitude) * (longitude - s.longitude);
+      return Math.sqrt(t1 + t2);
+   }
+
+   private static Comparator<Store> byDistance(final double latitude, final double longitude) {
+      return new Comparator<Store>() {
+         public int compare(Store a, Store b) {
+            return Double.compare(distance(latitude, longitude, a), distance(latitude, longitude, b));
+         }
+      };
+   }
+}//end StoreIndex
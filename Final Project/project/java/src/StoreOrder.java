@@ -0,0 +1,50 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * This class holds one order of a store as shown to its manager: the order
+ * together with the name of the customer who placed it.
+ *
+ */
+public class StoreOrder {
+
+   public final int orderNumber;
+   public final String customerName;
+   public final int storeId;
+   public final String productName;
+   public final Timestamp orderTime;
+
+   // maps the orderNumber, name, storeID, productName and orderTime columns
+   public static final RowMapper<StoreOrder> MAPPER = new RowMapper<StoreOrder>() {
+      public StoreOrder map(ResultSet rs) throws SQLException {
+         return new StoreOrder(rs.getInt("orderNumber"), rs.getString("name").trim(), rs.getInt("storeID"),
+                               rs.getString("productName").trim(), rs.getTimestamp("orderTime"));
+      }
+   };
+
+   public StoreOrder(int orderNumber, String customerName, int storeId, String productName, Timestamp orderTime) {
+      this.orderNumber = orderNumber;
+      this.customerName = customerName;
+      this.storeId = storeId;
+      this.productName = productName;
+      this.orderTime = orderTime;
+   }
+
+   public String toString() {
+      return orderNumber + "\t" + customerName + "\t" + storeId + "\t" + productName + "\t" + orderTime;
+   }
+}//end StoreOrder
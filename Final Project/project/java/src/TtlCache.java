@@ -0,0 +1,120 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is a small thread-safe cache whose entries expire a fixed time
+ * after they were loaded.  When full, the least recently used entry is
+ * dropped.  Invalidation bumps a generation counter so that a value loaded
+ * from the database before an invalidation is not cached afterwards.
+ *
+ */
+public class TtlCache<K, V> {
+
+   private static class CacheEntry<V> {
+      final V value;
+      final long expiresAt;
+
+      CacheEntry(V value, long expiresAt) {
+         this.value = value;
+         this.expiresAt = expiresAt;
+      }
+   }
+
+   private final long ttlMillis;
+   private final int maxSize;
+   private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+   // bumped by every invalidation
+   private long generation = 0;
+
+   // cache statistics
+   private long hits = 0;
+   private long misses = 0;
+   private long invalidations = 0;
+
+   /**
+    * Creates an empty cache
+    *
+    * @param ttlMillis how long an entry stays valid after it was put
+    * @param maxSize the maximum number of entries kept
+    */
+   public TtlCache(long ttlMillis, int maxSize) {
+      this.ttlMillis = ttlMillis;
+      this.maxSize = Math.max(1, maxSize);
+      this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+            return size() > TtlCache.this.maxSize;
+         }
+      };
+   }//end TtlCache
+
+   /**
+    * Returns the cached value, or null if it is missing or expired.
+    */
+   public synchronized V get(K key) {
+      CacheEntry<V> e = entries.get(key);
+      if (e != null && e.expiresAt > System.currentTimeMillis()) {
+         hits++;
+         return e.value;
+      }
+      if (e != null) entries.remove(key);
+      misses++;
+      return null;
+   }//end get
+
+   /**
+    * Returns the current generation; pass it to put() after loading a value.
+    */
+   public synchronized long generation() {
+      return generation;
+   }
+
+   /**
+    * Caches a value loaded while the cache was at the given generation.  The
+    * value is dropped if anything was invalidated since then.
+    */
+   public synchronized void put(K key, V value, long loadedAt) {
+      if (loadedAt != generation) return;
+      entries.put(key, new CacheEntry<V>(value, System.currentTimeMillis() + ttlMillis));
+   }
+
+   public synchronized void invalidate(K key) {
+      generation++;
+      invalidations++;
+      entries.remove(key);
+   }
+
+   public synchronized void invalidateAll() {
+      generation++;
+      invalidations++;
+      entries.clear();
+   }
+
+   public synchronized int size() { return entries.size(); }
+   public synchronized long getHits() { return hits; }
+   public synchronized long getMisses() { return misses; }
+   public synchronized long getInvalidations() { return invalidations; }
+
+   public synchronized double getHitRatio() {
+      long lookups = hits + misses;
+      return lookups == 0 ? 0 : (double) hits / lookups;
+   }
+
+   public synchronized String toString() {
+      return String.format("entries=%d hits=%d misses=%d hitRatio=%.3f invalidations=%d",
+                           entries.size(), hits, misses, getHitRatio(), invalidations);
+   }
+}//end TtlCache
@@ -0,0 +1,55 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class holds the parts of a Users row needed on the hot path: the
+ * user's role and location.  The password is deliberately left out.
+ *
+ */
+public class UserProfile {
+
+   public final int userId;
+   public final String name;
+   public final double latitude;
+   public final double longitude;
+
+   // 'customer', 'manager' or 'admin', without the char(10) padding
+   public final String type;
+
+   // maps the userID, name, latitude, longitude and type columns
+   public static final RowMapper<UserProfile> MAPPER = new RowMapper<UserProfile>() {
+      public UserProfile map(ResultSet rs) throws SQLException {
+         return new UserProfile(rs.getInt("userID"), rs.getString("name").trim(), rs.getDouble("latitude"),
+                                rs.getDouble("longitude"), rs.getString("type").trim());
+      }
+   };
+
+   public UserProfile(int userId, String name, double latitude, double longitude, String type) {
+      this.userId = userId;
+      this.name = name;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.type = type;
+   }
+
+   public boolean isCustomer() { return type.contains("customer"); }
+   public boolean isManager() { return type.contains("manager"); }
+   public boolean isAdmin() { return type.contains("admin"); }
+
+   public String toString() {
+      return userId + "\t" + name + "\t" + type;
+   }
+}//end UserProfile
@@ -1,6 +1,8 @@
 #!/bin/bash
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# data directory to load; defaults to the shipped data
+DATA_DIR="$( cd "${1:-$DIR/../../data}" && pwd )"
 psql -h localhost -p $PGPORT $USER"_DB" < "$DIR"/../src/create_tables.sql
+psql -h localhost -p $PGPORT $USER"_DB" -v datadir="$DATA_DIR" < "$DIR"/../src/load_data.sql
+# indexes are built once, after the load
 psql -h localhost -p $PGPORT $USER"_DB" < "$DIR"/../src/create_indexes.sql
-psql -h localhost -p $PGPORT $USER"_DB" < "$DIR"/../src/load_data.sql
-
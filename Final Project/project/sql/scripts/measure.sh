@@ -0,0 +1,37 @@
+#!/bin/bash
+# Times every query in queries.sql without and with the indexes in
+# create_indexes.sql, against the data currently loaded in the database.
+# Usage: measure.sh [runs] [psql -v options, e.g. -v customer=42]
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+DB_NAME=${DB_NAME:-$USER"_DB"}
+RUNS=${1:-5}
+shift
+
+# runs queries.sql RUNS times and prints the average time of each query;
+# a query's time is the sum of every statement up to the next name, and
+# the statements after a "-" (BEGIN and ROLLBACK) are not counted
+time_queries() {
+	for i in $(seq $RUNS); do
+		cat <(echo '\timing on') <(echo '\o /dev/null') "$DIR"/../src/queries.sql | psql -h localhost -p $PGPORT "$@" $DB_NAME
+	done | awk '
+		BEGIN { name = "-" }
+		/^Time:/ { if (name != "-") { if (!(name in sum)) order[++k] = name; sum[name] += $2 } next }
+		$0 == "-" { name = "-"; next }
+		NF > 0 { name = $0; n[name]++ }
+		END { for (i = 1; i <= k; i++) printf "%-28s %10.3f ms\n", order[i], sum[order[i]] / n[order[i]] }'
+}
+
+grep '^DROP INDEX' "$DIR"/../src/create_indexes.sql | psql -h localhost -p $PGPORT $DB_NAME > /dev/null
+echo 'ANALYZE;' | psql -h localhost -p $PGPORT $DB_NAME > /dev/null
+echo "Query time without indexes (average of $RUNS runs)"
+time_queries "$@" | tee /tmp/measure_before.$$
+
+psql -h localhost -p $PGPORT $DB_NAME < "$DIR"/../src/create_indexes.sql > /dev/null
+echo
+echo "Query time with indexes (average of $RUNS runs)"
+time_queries "$@" | tee /tmp/measure_after.$$
+
+echo
+echo "Speedup"
+join <(sort /tmp/measure_before.$$) <(sort /tmp/measure_after.$$) | awk '{ printf "%-28s %8.2fx\n", $1, ($4 > 0 ? $2 / $4 : 0) }'
+rm -f /tmp/measure_before.$$ /tmp/measure_after.$$
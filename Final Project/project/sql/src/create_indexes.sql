@@ -0,0 +1,61 @@
+DROP INDEX IF EXISTS store_location_idx;
+DROP INDEX IF EXISTS store_manager_idx;
+DROP INDEX IF EXISTS users_name_password_idx;
+DROP INDEX IF EXISTS orders_customer_time_idx;
+DROP INDEX IF EXISTS orders_store_time_idx;
+DROP INDEX IF EXISTS product_updates_store_time_idx;
+DROP INDEX IF EXISTS product_popularity_idx;
+DROP INDEX IF EXISTS customer_popularity_idx;
+DROP INDEX IF EXISTS stock_reservations_product_idx;
+
+/* Index for the "stores within 30 miles" lookups (viewStores, placeOrder).
+   The queries prefilter Store with a bounding box on latitude/longitude,
+   which this index answers before calculate_distance is evaluated. */
+CREATE INDEX store_location_idx
+ON Store
+USING BTREE(latitude, longitude);
+
+/* Index for getManagedStores (manager dashboards, supply requests,
+   updateProduct).  Covers storeID so the lookup never visits Store. */
+CREATE INDEX store_manager_idx
+ON Store
+USING BTREE(managerID, storeID);
+
+/* Index for LogIn and the duplicate check in CreateUser */
+CREATE INDEX users_name_password_idx
+ON Users
+USING BTREE(name, password);
+
+/* Index for viewRecentOrders: the 5 newest orders of a customer are the
+   front of one range, and the other selected columns come from the index. */
+CREATE INDEX orders_customer_time_idx
+ON Orders
+USING BTREE(customerID, orderTime DESC, storeID, productName, unitsOrdered);
+
+/* Index for viewStoreOrderInfo and rebuild_popularity */
+CREATE INDEX orders_store_time_idx
+ON Orders
+USING BTREE(storeID, orderTime);
+
+/* Index for viewRecentUpdates */
+CREATE INDEX product_updates_store_time_idx
+ON ProductUpdates
+USING BTREE(storeID, updatedOn DESC);
+
+/* Indexes for viewPopularProducts and viewPopularCustomers: the top 5 rows
+   of a store are the first 5 entries of its range. */
+CREATE INDEX product_popularity_idx
+ON ProductPopularity
+USING BTREE(storeID, numOrders DESC);
+
+CREATE INDEX customer_popularity_idx
+ON CustomerPopularity
+USING BTREE(storeID, numOrders DESC);
+
+/* Index for the pending units of a product in ProductStock and the stock
+   triggers; covers units so the sum never visits the table. */
+CREATE INDEX stock_reservations_product_idx
+ON StockReservations
+USING BTREE(storeID, productName, units);
+
+ANALYZE;
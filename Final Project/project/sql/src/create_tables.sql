@@ -5,6 +5,12 @@ DROP TABLE IF EXISTS Warehouse CASCADE;
 DROP TABLE IF EXISTS Orders CASCADE;
 DROP TABLE IF EXISTS ProductSupplyRequests CASCADE;
 DROP TABLE IF EXISTS ProductUpdates CASCADE;
+DROP TABLE IF EXISTS ProductPopularity CASCADE;
+DROP TABLE IF EXISTS CustomerPopularity CASCADE;
+DROP TABLE IF EXISTS InventoryMovements CASCADE;
+DROP TABLE IF EXISTS StockReservations CASCADE;
+DROP TABLE IF EXISTS ProductStripes CASCADE;
+DROP TABLE IF EXISTS InventorySettings CASCADE;
 
 CREATE TABLE Users ( userID serial,
                      name char(50) NOT NULL,
@@ -75,9 +81,519 @@ CREATE TABLE ProductUpdates ( updateNumber serial,
                               FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
 );
 
+-- Plain SQL and IMMUTABLE so the planner can inline it into the store lookups
 CREATE OR REPLACE FUNCTION calculate_distance(lat1 decimal, long1 decimal, lat2 decimal, long2 decimal)
 RETURNS decimal AS $dist$
+	SELECT sqrt((lat1 - lat2) * (lat1 - lat2) + (long1 - long2) * (long1 - long2));
+$dist$ LANGUAGE sql IMMUTABLE;
+
+-- Number of orders per (store, product) and per (store, customer), kept in
+-- step with Orders by the orders_popularity trigger so the popularity
+-- reports read a handful of rows instead of grouping every order.
+CREATE TABLE ProductPopularity ( storeID integer NOT NULL,
+                                 productName char(30) NOT NULL,
+                                 numOrders integer NOT NULL,
+                                 PRIMARY KEY(storeID, productName),
+                                 FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+                                 ON DELETE CASCADE
+);
+
+CREATE TABLE CustomerPopularity ( storeID integer NOT NULL,
+                                  customerID integer NOT NULL,
+                                  numOrders integer NOT NULL,
+                                  PRIMARY KEY(storeID, customerID),
+                                  FOREIGN KEY(storeID) REFERENCES Store(storeID) ON DELETE CASCADE,
+                                  FOREIGN KEY(customerID) REFERENCES Users(userID)
+);
+
+CREATE OR REPLACE FUNCTION count_order_popularity() RETURNS trigger AS $pop$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE ProductPopularity SET numOrders = numOrders - 1
+		WHERE storeID = OLD.storeID AND productName = OLD.productName;
+		UPDATE CustomerPopularity SET numOrders = numOrders - 1
+		WHERE storeID = OLD.storeID AND customerID = OLD.customerID;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO ProductPopularity (storeID, productName, numOrders)
+		VALUES (NEW.storeID, NEW.productName, 1)
+		ON CONFLICT (storeID, productName) DO UPDATE SET numOrders = ProductPopularity.numOrders + 1;
+		INSERT INTO CustomerPopularity (storeID, customerID, numOrders)
+		VALUES (NEW.storeID, NEW.customerID, 1)
+		ON CONFLICT (storeID, customerID) DO UPDATE SET numOrders = CustomerPopularity.numOrders + 1;
+	END IF;
+	RETURN NULL;
+END;
+$pop$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS orders_popularity ON Orders;
+CREATE TRIGGER orders_popularity AFTER INSERT OR DELETE OR UPDATE OF storeID, productName, customerID ON Orders
+	FOR EACH ROW EXECUTE PROCEDURE count_order_popularity();
+
+-- Recomputes both popularity tables from Orders, e.g. after a bulk load
+-- with the trigger disabled or to check the counters against the orders.
+CREATE OR REPLACE FUNCTION rebuild_popularity() RETURNS void AS $rebuild$
+BEGIN
+	DELETE FROM ProductPopularity;
+	DELETE FROM CustomerPopularity;
+	INSERT INTO ProductPopularity (storeID, productName, numOrders)
+	SELECT storeID, productName, COUNT(*) FROM Orders GROUP BY storeID, productName;
+	INSERT INTO CustomerPopularity (storeID, customerID, numOrders)
+	SELECT storeID, customerID, COUNT(*) FROM Orders GROUP BY storeID, customerID;
+END;
+$rebuild$ LANGUAGE plpgsql;
+
+-- Append-only history of Product.numberOfUnits, written by the triggers
+-- below: the opening balance of each product, orders, supply requests and
+-- direct adjustments such as updateProduct.  For every product the sum of
+-- its movements equals its ProductStock.numberOfUnits, which
+-- InventoryReconciler checks.
+CREATE TABLE InventoryMovements ( movementID bigserial,
+                                  storeID integer NOT NULL,
+                                  productName char(30) NOT NULL,
+                                  delta integer NOT NULL,
+                                  reason char(10) NOT NULL,  -- 'opening', 'order', 'supply' or 'adjustment'
+                                  reference integer,         -- orderNumber or requestNumber
+                                  movedAt timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                                  PRIMARY KEY(movementID)
+);
+
+-- Units taken by orders that post_stock_reservations() has not yet
+-- subtracted from Product.numberOfUnits
+CREATE TABLE StockReservations ( orderNumber integer NOT NULL,
+                                 storeID integer NOT NULL,
+                                 productName char(30) NOT NULL,
+                                 units integer NOT NULL,
+                                 PRIMARY KEY(orderNumber),
+                                 FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+                                 ON DELETE CASCADE
+);
+
+-- The stock of a striped product, split over stripes numbered from 0 by
+-- stripe_product(); Product.numberOfUnits of a striped product is 0.  An
+-- order takes its units from one random stripe, so orders of a hot
+-- product lock different rows and up to one per stripe go ahead at once.
+CREATE TABLE ProductStripes ( storeID integer NOT NULL,
+                              productName char(30) NOT NULL,
+                              stripe integer NOT NULL,
+                              units integer NOT NULL,
+                              PRIMARY KEY(storeID, productName, stripe),
+                              FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+                              ON DELETE CASCADE
+);
+
+-- One row.  With reserveStock off an order takes its units from the
+-- Product row at once, which keeps the row locked until the order
+-- commits.  With it on, orders of a product only append a reservation
+-- under an advisory lock of their own; the Product row is not locked or
+-- rewritten per order, so price updates and supply requests no longer
+-- queue behind buyers, and post_stock_reservations() brings it up to date
+-- in batches.  Reserve mode is not lock-free, though: the shortage check
+-- has to see the reservations of orders not yet committed, so the lock is
+-- held until the order commits and buyers of one product still take turns
+-- on it.  A product whose buyers must not wait on each other is striped
+-- with stripe_product(), which reserves against pre-allocated chunks.
+-- Switch with
+--   UPDATE InventorySettings SET reserveStock = true;
+CREATE TABLE InventorySettings ( onlyRow boolean PRIMARY KEY DEFAULT true CHECK (onlyRow),
+                                 reserveStock boolean NOT NULL
+);
+INSERT INTO InventorySettings (reserveStock) VALUES (false);
+
+-- Stock that can still be ordered: numberOfUnits plus the stripes, less
+-- the pending reservations
+CREATE VIEW ProductStock AS
+SELECT p.storeID, p.productName,
+       (p.numberOfUnits
+        + COALESCE((SELECT SUM(t.units) FROM ProductStripes t
+                    WHERE t.storeID = p.storeID AND t.productName = p.productName), 0)
+        - COALESCE((SELECT SUM(r.units) FROM StockReservations r
+                    WHERE r.storeID = p.storeID AND r.productName = p.productName), 0))::integer AS numberOfUnits,
+       p.pricePerUnit
+FROM Product p;
+
+-- Takes the units of a new order from the stock and records the movement:
+-- from a stripe of a striped product, as a reservation in reserve mode, or
+-- from the Product row.  An order that started as stripe_product() moved
+-- the stock looks again where it went.  An order the stock cannot fill is
+-- refused with check_violation.
+CREATE OR REPLACE FUNCTION take_order_stock() RETURNS trigger AS $take$
+DECLARE
+	reserve boolean;
+	units_left integer;
+	needed integer;
+	taken integer;
+	s record;
+	striped boolean;
+BEGIN
+	SELECT reserveStock INTO reserve FROM InventorySettings;
+	striped := EXISTS (SELECT 1 FROM ProductStripes WHERE storeID = NEW.storeID AND productName = NEW.productName);
+	FOR pass IN 1..2 LOOP
+		IF striped THEN
+			-- a random stripe that can fill the order and no other order is using
+			UPDATE ProductStripes SET units = units - NEW.unitsOrdered
+			WHERE storeID = NEW.storeID AND productName = NEW.productName
+			AND stripe = (SELECT stripe FROM ProductStripes
+			              WHERE storeID = NEW.storeID AND productName = NEW.productName AND units >= NEW.unitsOrdered
+			              ORDER BY random() LIMIT 1 FOR UPDATE SKIP LOCKED)
+			RETURNING units INTO units_left;
+			IF units_left IS NULL THEN
+				-- every such stripe is busy: wait for one of them
+				UPDATE ProductStripes SET units = units - NEW.unitsOrdered
+				WHERE storeID = NEW.storeID AND productName = NEW.productName AND units >= NEW.unitsOrdered
+				AND stripe = (SELECT stripe FROM ProductStripes
+				              WHERE storeID = NEW.storeID AND productName = NEW.productName AND units >= NEW.unitsOrdered
+				              ORDER BY random() LIMIT 1)
+				RETURNING units INTO units_left;
+			END IF;
+			IF units_left IS NULL THEN
+				-- no stripe can fill it alone: lock them all, in order, and take from several
+				SELECT SUM(units) - NEW.unitsOrdered INTO units_left
+				FROM (SELECT units FROM ProductStripes WHERE storeID = NEW.storeID AND productName = NEW.productName
+				      ORDER BY stripe FOR UPDATE) locked;
+				IF units_left >= 0 THEN
+					needed := NEW.unitsOrdered;
+					FOR s IN SELECT stripe, units FROM ProductStripes
+					         WHERE storeID = NEW.storeID AND productName = NEW.productName AND units > 0
+					         ORDER BY units DESC LOOP
+						EXIT WHEN needed = 0;
+						taken := LEAST(s.units, needed);
+						UPDATE ProductStripes SET units = units - taken
+						WHERE storeID = NEW.storeID AND productName = NEW.productName AND stripe = s.stripe;
+						needed := needed - taken;
+					END LOOP;
+				END IF;
+			END IF;
+		ELSIF reserve THEN
+			-- buyers of one product take turns on this lock instead of on its row,
+			-- until they commit; see InventorySettings
+			PERFORM pg_advisory_xact_lock(NEW.storeID, hashtext(NEW.productName));
+			-- stripe_product() holds the same lock while it moves the stock
+			IF EXISTS (SELECT 1 FROM ProductStripes WHERE storeID = NEW.storeID AND productName = NEW.productName) THEN
+				striped := true;
+				CONTINUE;
+			END IF;
+			SELECT numberOfUnits - NEW.unitsOrdered INTO units_left FROM ProductStock
+			WHERE storeID = NEW.storeID AND productName = NEW.productName;
+			IF units_left >= 0 THEN
+				INSERT INTO StockReservations (orderNumber, storeID, productName, units)
+				VALUES (NEW.orderNumber, NEW.storeID, NEW.productName, NEW.unitsOrdered);
+			END IF;
+		ELSE
+			-- reservations still pending from reserve mode count as taken
+			UPDATE Product p SET numberOfUnits = p.numberOfUnits - NEW.unitsOrdered
+			WHERE p.storeID = NEW.storeID AND p.productName = NEW.productName
+			AND p.numberOfUnits - NEW.unitsOrdered >= COALESCE((SELECT SUM(r.units) FROM StockReservations r
+			                                                  WHERE r.storeID = p.storeID AND r.productName = p.productName), 0)
+			RETURNING p.numberOfUnits INTO units_left;
+		END IF;
+		-- an order that waited on stripe_product() looked for its units where they no
+		-- longer are; it takes them from where they were moved to instead
+		EXIT WHEN units_left IS NOT NULL
+		       OR striped = EXISTS (SELECT 1 FROM ProductStripes WHERE storeID = NEW.storeID AND productName = NEW.productName);
+		striped := NOT striped;
+	END LOOP;
+	IF units_left IS NULL OR units_left < 0 THEN
+		RAISE EXCEPTION 'insufficient stock of % in store %', trim(NEW.productName), NEW.storeID
+			USING ERRCODE = 'check_violation';
+	END IF;
+	INSERT INTO InventoryMovements (storeID, productName, delta, reason, reference)
+	VALUES (NEW.storeID, NEW.productName, -NEW.unitsOrdered, 'order', NEW.orderNumber);
+	RETURN NULL;
+END;
+$take$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS orders_stock ON Orders;
+CREATE TRIGGER orders_stock AFTER INSERT ON Orders
+	FOR EACH ROW EXECUTE PROCEDURE take_order_stock();
+
+CREATE OR REPLACE FUNCTION add_supply_stock() RETURNS trigger AS $supply_stock$
+DECLARE
+	stripes integer;
+BEGIN
+	SELECT COUNT(*) INTO stripes
+	FROM (SELECT 1 FROM ProductStripes WHERE storeID = NEW.storeID AND productName = NEW.productName
+	      ORDER BY stripe FOR UPDATE) locked;
+	IF stripes > 0 THEN
+		-- spread the units evenly over the stripes
+		UPDATE ProductStripes
+		SET units = units + NEW.unitsRequested / stripes + CASE WHEN stripe < NEW.unitsRequested % stripes THEN 1 ELSE 0 END
+		WHERE storeID = NEW.storeID AND productName = NEW.productName;
+	ELSE
+		UPDATE Product SET numberOfUnits = numberOfUnits + NEW.unitsRequested
+		WHERE storeID = NEW.storeID AND productName = NEW.productName;
+	END IF;
+	INSERT INTO InventoryMovements (storeID, productName, delta, reason, reference)
+	VALUES (NEW.storeID, NEW.productName, NEW.unitsRequested, 'supply', NEW.requestNumber);
+	RETURN NULL;
+END;
+$supply_stock$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS supply_requests_stock ON ProductSupplyRequests;
+CREATE TRIGGER supply_requests_stock AFTER INSERT ON ProductSupplyRequests
+	FOR EACH ROW EXECUTE PROCEDURE add_supply_stock();
+
+-- Records the opening balance of new products and changes made to
+-- numberOfUnits directly, e.g. by updateProduct.  Changes made from the
+-- triggers above, by post_stock_reservations() or by stripe_product() are
+-- in the ledger already.  Setting numberOfUnits outright settles the
+-- product's pending reservations: the units they took were still in the
+-- old value, and posting them later would take them from the new one again.
+CREATE OR REPLACE FUNCTION log_stock_adjustment() RETURNS trigger AS $adjust$
+DECLARE
+	pending integer;
+BEGIN
+	IF pg_trigger_depth() > 1 OR current_setting('retail.moving_stock', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'INSERT' THEN
+		INSERT INTO InventoryMovements (storeID, productName, delta, reason)
+		VALUES (NEW.storeID, NEW.productName, NEW.numberOfUnits, 'opening');
+		RETURN NULL;
+	END IF;
+	-- waits for the reserving orders in flight, so none is left pending
+	PERFORM pg_advisory_xact_lock(NEW.storeID, hashtext(NEW.productName));
+	WITH settled AS (DELETE FROM StockReservations
+	                 WHERE storeID = NEW.storeID AND productName = NEW.productName RETURNING units)
+	SELECT COALESCE(SUM(units), 0) INTO pending FROM settled;
+	-- the orders' movements are in the ledger, so it stood at OLD less the pending units
+	IF NEW.numberOfUnits <> OLD.numberOfUnits - pending THEN
+		INSERT INTO InventoryMovements (storeID, productName, delta, reason)
+		VALUES (NEW.storeID, NEW.productName, NEW.numberOfUnits - OLD.numberOfUnits + pending, 'adjustment');
+	END IF;
+	RETURN NULL;
+END;
+$adjust$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS product_stock_adjustments ON Product;
+CREATE TRIGGER product_stock_adjustments AFTER INSERT OR UPDATE OF numberOfUnits ON Product
+	FOR EACH ROW EXECUTE PROCEDURE log_stock_adjustment();
+
+-- Setting numberOfUnits of a striped product directly, e.g. by
+-- updateProduct, sets its total stock: the units are spread over the
+-- stripes and Product keeps none.
+CREATE OR REPLACE FUNCTION set_striped_stock() RETURNS trigger AS $set_striped$
+DECLARE
+	stripes integer;
+	total integer;
+BEGIN
+	IF pg_trigger_depth() > 1 OR current_setting('retail.moving_stock', true) = 'on' THEN
+		RETURN NEW;
+	END IF;
+	SELECT COUNT(*), SUM(units) INTO stripes, total
+	FROM (SELECT units FROM ProductStripes WHERE storeID = NEW.storeID AND productName = NEW.productName
+	      ORDER BY stripe FOR UPDATE) locked;
+	IF stripes = 0 THEN
+		RETURN NEW;
+	END IF;
+	IF NEW.numberOfUnits <> OLD.numberOfUnits + total THEN
+		INSERT INTO InventoryMovements (storeID, productName, delta, reason)
+		VALUES (NEW.storeID, NEW.productName, NEW.numberOfUnits - OLD.numberOfUnits - total, 'adjustment');
+		UPDATE ProductStripes
+		SET units = NEW.numberOfUnits / stripes + CASE WHEN stripe < NEW.numberOfUnits % stripes THEN 1 ELSE 0 END
+		WHERE storeID = NEW.storeID AND productName = NEW.productName;
+	END IF;
+	-- Product keeps none of the units, so product_stock_adjustments sees no change
+	NEW.numberOfUnits := OLD.numberOfUnits;
+	RETURN NEW;
+END;
+$set_striped$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS product_striped_stock ON Product;
+CREATE TRIGGER product_striped_stock BEFORE UPDATE OF numberOfUnits ON Product
+	FOR EACH ROW EXECUTE PROCEDURE set_striped_stock();
+
+CREATE OR REPLACE FUNCTION forbid_movement_change() RETURNS trigger AS $append$
+BEGIN
+	RAISE EXCEPTION 'InventoryMovements is append-only';
+END;
+$append$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS inventory_movements_append_only ON InventoryMovements;
+CREATE TRIGGER inventory_movements_append_only BEFORE UPDATE OR DELETE ON InventoryMovements
+	FOR EACH ROW EXECUTE PROCEDURE forbid_movement_change();
+
+-- Subtracts the pending reservations from Product with one update per
+-- product and returns the number of orders posted.  Reservations made
+-- while it runs are left for the next call.
+CREATE OR REPLACE FUNCTION post_stock_reservations() RETURNS integer AS $post$
+DECLARE
+	posted integer;
+BEGIN
+	-- the products first, in key order: an update setting numberOfUnits holds
+	-- its row and then settles the product's reservations itself
+	PERFORM 1 FROM Product p
+	WHERE (p.storeID, p.productName) IN (SELECT storeID, productName FROM StockReservations)
+	ORDER BY p.storeID, p.productName FOR NO KEY UPDATE;
+	-- the reservations are in the ledger already
+	PERFORM set_config('retail.moving_stock', 'on', true);
+	WITH moved AS (DELETE FROM StockReservations RETURNING storeID, productName, units),
+	totals AS (SELECT storeID, productName, SUM(units) AS units, COUNT(*) AS orders
+	           FROM moved GROUP BY storeID, productName),
+	changed AS (UPDATE Product p SET numberOfUnits = p.numberOfUnits - t.units FROM totals t
+	            WHERE p.storeID = t.storeID AND p.productName = t.productName RETURNING t.orders)
+	SELECT COALESCE(SUM(orders), 0) INTO posted FROM changed;
+	PERFORM set_config('retail.moving_stock', 'off', true);
+	RETURN posted;
+END;
+$post$ LANGUAGE plpgsql;
+
+-- Starts the ledger again from the current stock, e.g. after a bulk load
+-- with the triggers disabled: posts the pending reservations and records
+-- one opening movement per product.
+CREATE OR REPLACE FUNCTION rebuild_inventory() RETURNS void AS $rebuild_inventory$
+BEGIN
+	PERFORM post_stock_reservations();
+	TRUNCATE InventoryMovements;
+	INSERT INTO InventoryMovements (storeID, productName, delta, reason)
+	SELECT storeID, productName, numberOfUnits, 'opening' FROM ProductStock;
+END;
+$rebuild_inventory$ LANGUAGE plpgsql;
+
+-- Splits the stock of a product evenly over `stripes` ProductStripes rows,
+-- or moves it back into Product when stripes is 0.  The total stock and
+-- the ledger are unchanged.
+CREATE OR REPLACE FUNCTION stripe_product(p_store integer, p_product char(30), stripes integer) RETURNS void AS $stripe$
+DECLARE
+	total integer;
+BEGIN
+	-- waits for the orders of the product in flight, whichever way they take their units
+	PERFORM pg_advisory_xact_lock(p_store, hashtext(p_product));
+	PERFORM 1 FROM Product WHERE storeID = p_store AND productName = p_product FOR NO KEY UPDATE;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'no product % in store %', trim(p_product), p_store;
+	END IF;
+	PERFORM 1 FROM ProductStripes WHERE storeID = p_store AND productName = p_product ORDER BY stripe FOR UPDATE;
+	PERFORM post_stock_reservations();
+	SELECT numberOfUnits INTO total FROM ProductStock WHERE storeID = p_store AND productName = p_product;
+
+	PERFORM set_config('retail.moving_stock', 'on', true);
+	DELETE FROM ProductStripes WHERE storeID = p_store AND productName = p_product;
+	IF stripes > 0 THEN
+		INSERT INTO ProductStripes (storeID, productName, stripe, units)
+		SELECT p_store, p_product, i, total / stripes + CASE WHEN i < total % stripes THEN 1 ELSE 0 END
+		FROM generate_series(0, stripes - 1) i;
+		UPDATE Product SET numberOfUnits = 0 WHERE storeID = p_store AND productName = p_product;
+	ELSE
+		UPDATE Product SET numberOfUnits = total WHERE storeID = p_store AND productName = p_product;
+	END IF;
+	PERFORM set_config('retail.moving_stock', 'off', true);
+END;
+$stripe$ LANGUAGE plpgsql;
+
+-- Server-side versions of the write flows, used when Retail runs with
+-- -Dretail.mode=procedures.  Each one is a single call that checks its
+-- preconditions and makes its change atomically, and reports the outcome
+-- as the name of the matching Java status.
+CREATE OR REPLACE FUNCTION place_order(p_customer integer, p_store integer, p_product char(30), p_units integer,
+                                       OUT status text, OUT order_number integer, OUT units_left integer) AS $order$
+DECLARE
+	distance decimal;
+BEGIN
+	order_number := -1;
+	units_left := -1;
+	IF p_units <= 0 THEN
+		status := 'INVALID_UNITS';
+		RETURN;
+	END IF;
+	SELECT calculate_distance(u.latitude, u.longitude, s.latitude, s.longitude) INTO distance
+	FROM Users u, Store s WHERE u.userID = p_customer AND s.storeID = p_store;
+	IF NOT FOUND THEN
+		status := CASE WHEN EXISTS (SELECT 1 FROM Store WHERE storeID = p_store)
+		               THEN 'NO_SUCH_CUSTOMER' ELSE 'NO_SUCH_STORE' END;
+		RETURN;
+	END IF;
+	-- Retail.STORE_RADIUS
+	IF distance > 30 THEN
+		status := 'STORE_TOO_FAR';
+		RETURN;
+	END IF;
+	SELECT numberOfUnits INTO units_left FROM ProductStock WHERE storeID = p_store AND productName = p_product;
+	IF NOT FOUND THEN
+		status := 'NO_SUCH_PRODUCT';
+		units_left := -1;
+		RETURN;
+	END IF;
+	IF units_left < p_units THEN
+		status := 'INSUFFICIENT_STOCK';
+		RETURN;
+	END IF;
+	-- the orders_stock trigger takes the units, re-checking them under its lock
+	BEGIN
+		INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime)
+		VALUES (p_customer, p_store, p_product, p_units, CURRENT_TIMESTAMP)
+		RETURNING orderNumber INTO order_number;
+	EXCEPTION WHEN check_violation THEN
+		-- a concurrent order took the units first
+		SELECT numberOfUnits INTO units_left FROM ProductStock WHERE storeID = p_store AND productName = p_product;
+		status := 'INSUFFICIENT_STOCK';
+		RETURN;
+	END;
+	units_left := units_left - p_units;
+	status := 'PLACED';
+END;
+$order$ LANGUAGE plpgsql;
+
+-- Checks that p_manager may change p_store the way ManagerVerdict.status()
+-- does; returns NULL when the change is allowed.
+CREATE OR REPLACE FUNCTION check_store_access(p_manager integer, p_store integer, admin_may_change_any boolean)
+RETURNS text AS $access$
+DECLARE
+	user_type text;
+	store_manager integer;
+BEGIN
+	SELECT trim(type) INTO user_type FROM Users WHERE userID = p_manager;
+	IF NOT FOUND OR user_type = 'customer' THEN
+		RETURN 'NOT_AUTHORIZED';
+	END IF;
+	SELECT managerID INTO store_manager FROM Store WHERE storeID = p_store;
+	IF NOT FOUND THEN
+		RETURN 'NO_SUCH_STORE';
+	END IF;
+	IF store_manager <> p_manager AND NOT (admin_may_change_any AND user_type = 'admin') THEN
+		RETURN 'NOT_YOUR_STORE';
+	END IF;
+	RETURN NULL;
+END;
+$access$ LANGUAGE plpgsql STABLE;
+
+CREATE OR REPLACE FUNCTION update_product(p_manager integer, p_store integer, p_product char(30),
+                                          p_units integer, p_price float, OUT status text) AS $update$
+BEGIN
+	status := check_store_access(p_manager, p_store, true);
+	IF status IS NOT NULL THEN
+		RETURN;
+	END IF;
+	UPDATE Product SET numberOfUnits = p_units, pricePerUnit = p_price
+	WHERE storeID = p_store AND productName = p_product;
+	IF NOT FOUND THEN
+		status := 'NO_SUCH_PRODUCT';
+		RETURN;
+	END IF;
+	INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn)
+	VALUES (p_manager, p_store, p_product, CURRENT_TIMESTAMP);
+	status := 'OK';
+END;
+$update$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION place_supply_request(p_manager integer, p_store integer, p_product char(30),
+                                                p_units integer, p_warehouse integer, OUT status text) AS $supply$
 BEGIN
-	RETURN sqrt((lat1 - lat2) * (lat1 - lat2) + (long1 - long2) * (long1 - long2));
+	status := check_store_access(p_manager, p_store, false);
+	IF status IS NOT NULL THEN
+		RETURN;
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM Product WHERE storeID = p_store AND productName = p_product) THEN
+		status := 'NO_SUCH_PRODUCT';
+		RETURN;
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM Warehouse WHERE warehouseID = p_warehouse) THEN
+		status := 'NO_SUCH_WAREHOUSE';
+		RETURN;
+	END IF;
+	-- the supply_requests_stock trigger adds the units to the stock
+	INSERT INTO ProductSupplyRequests (managerID, warehouseID, storeID, productName, unitsRequested)
+	VALUES (p_manager, p_warehouse, p_store, p_product, p_units);
+	status := 'OK';
 END;
-$dist$ LANGUAGE plpgsql;
+$supply$ LANGUAGE plpgsql;
@@ -1,60 +1,59 @@
+-- Loads the CSV files of a data directory; run with
+--   psql -v datadir=/absolute/path/to/data -f load_data.sql
+-- For large data sets use the BulkLoader Java tool instead.
+\set users_csv :datadir '/users.csv'
+\set stores_csv :datadir '/stores.csv'
+\set products_csv :datadir '/products.csv'
+\set warehouse_csv :datadir '/warehouse.csv'
+\set orders_csv :datadir '/orders.csv'
+\set supply_csv :datadir '/productSupplyRequests.csv'
+\set updates_csv :datadir '/productUpdates.csv'
+
+-- Historical orders are counted in one pass by rebuild_popularity() below,
+-- and the loaded stock is already net of them; rebuild_inventory() starts
+-- the ledger from it
+ALTER TABLE Orders DISABLE TRIGGER orders_popularity;
+ALTER TABLE Orders DISABLE TRIGGER orders_stock;
+ALTER TABLE ProductSupplyRequests DISABLE TRIGGER supply_requests_stock;
+ALTER TABLE Product DISABLE TRIGGER product_stock_adjustments;
+
 COPY Users
-<<<<<<< HEAD
-FROM '/extra/echu031/finalproj166/cs166/Final Project/project/data/users.csv'
-=======
-FROM '/extra/mwess005/cs166/cs166/Final Project/project/data/users.csv'
->>>>>>> eebd94943c1379b8f475c0ca4c1c6ee26c779a8c
+FROM :'users_csv'
 WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE users_userID_seq RESTART 101;
 
 COPY Store
-<<<<<<< HEAD
-FROM '/extra/echu031/finalproj166/cs166/Final Project/project/data/stores.csv'
+FROM :'stores_csv'
 WITH DELIMITER ',' CSV HEADER;
 
 COPY Product
-FROM '/extra/echu031/finalproj166/cs166/Final Project/project/data/products.csv'
+FROM :'products_csv'
 WITH DELIMITER ',' CSV HEADER;
 
 COPY Warehouse
-FROM '/extra/echu031/finalproj166/cs166/Final Project/project/data/warehouse.csv'
+FROM :'warehouse_csv'
 WITH DELIMITER ',' CSV HEADER;
 
 COPY Orders
-FROM '/extra/echu031/finalproj166/cs166/Final Project/project/data/orders.csv'
-=======
-FROM '/extra/mwess005/cs166/cs166/Final Project/project/data/stores.csv'
-WITH DELIMITER ',' CSV HEADER;
-
-COPY Product
-FROM '/extra/mwess005/cs166/cs166/Final Project/project/data/products.csv'
-WITH DELIMITER ',' CSV HEADER;
-
-COPY Warehouse
-FROM '/extra/mwess005/cs166/cs166/Final Project/project/data/warehouse.csv'
+FROM :'orders_csv'
 WITH DELIMITER ',' CSV HEADER;
 
-COPY Orders
-FROM '/extra/mwess005/cs166/cs166/Final Project/project/data/orders.csv'
->>>>>>> eebd94943c1379b8f475c0ca4c1c6ee26c779a8c
-WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE orders_orderNumber_seq RESTART 501;
-
-
 COPY ProductSupplyRequests
-<<<<<<< HEAD
-FROM '/extra/echu031/finalproj166/cs166/Final Project/project/data/productSupplyRequests.csv'
-=======
-FROM '/extra/mwess005/cs166/cs166/Final Project/project/data/productSupplyRequests.csv'
->>>>>>> eebd94943c1379b8f475c0ca4c1c6ee26c779a8c
+FROM :'supply_csv'
 WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE productsupplyrequests_requestNumber_seq RESTART 11;
 
 COPY ProductUpdates
-<<<<<<< HEAD
-FROM '/extra/echu031/finalproj166/cs166/Final Project/project/data/productUpdates.csv'
-=======
-FROM '/extra/mwess005/cs166/cs166/Final Project/project/data/productUpdates.csv'
->>>>>>> eebd94943c1379b8f475c0ca4c1c6ee26c779a8c
+FROM :'updates_csv'
 WITH DELIMITER ',' CSV HEADER;
-ALTER SEQUENCE productupdates_updateNumber_seq RESTART 51;
+
+-- Start the serial keys after the loaded ones
+SELECT setval(pg_get_serial_sequence('users', 'userid'), COALESCE(MAX(userID), 0) + 1, false) FROM Users;
+SELECT setval(pg_get_serial_sequence('orders', 'ordernumber'), COALESCE(MAX(orderNumber), 0) + 1, false) FROM Orders;
+SELECT setval(pg_get_serial_sequence('productsupplyrequests', 'requestnumber'), COALESCE(MAX(requestNumber), 0) + 1, false) FROM ProductSupplyRequests;
+SELECT setval(pg_get_serial_sequence('productupdates', 'updatenumber'), COALESCE(MAX(updateNumber), 0) + 1, false) FROM ProductUpdates;
+
+ALTER TABLE Orders ENABLE TRIGGER orders_popularity;
+ALTER TABLE Orders ENABLE TRIGGER orders_stock;
+ALTER TABLE ProductSupplyRequests ENABLE TRIGGER supply_requests_stock;
+ALTER TABLE Product ENABLE TRIGGER product_stock_adjustments;
+SELECT rebuild_popularity();
+SELECT rebuild_inventory();
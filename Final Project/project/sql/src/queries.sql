@@ -0,0 +1,95 @@
+/* Every statement the Retail application issues, with sample parameters.
+   Each statement is preceded by an \echo of its name for measure.sh, which
+   adds up the time of every statement until the next name.
+   Override the parameters with psql -v, e.g. -v customer=42.
+   Writes run inside a transaction that is rolled back; its BEGIN and
+   ROLLBACK follow an \echo - so that their time is not counted. */
+\if :{?customer} \else \set customer 2 \endif
+\if :{?name} \else \set name Amy \endif
+\if :{?password} \else \set password xyz \endif
+\if :{?store} \else \set store 1 \endif
+\if :{?manager} \else \set manager 25 \endif
+\if :{?product} \else \set product 7up \endif
+\if :{?warehouse} \else \set warehouse 1 \endif
+
+\echo LogIn
+SELECT * FROM USERS WHERE name = :'name' AND password = :'password';
+
+\echo getUserProfile
+SELECT userID, name, latitude, longitude, type FROM USERS WHERE userID = :customer;
+
+\echo getStoreId
+SELECT storeID FROM STORE WHERE storeID = :store;
+
+\echo viewStores
+SELECT s.storeID, s.name, s.latitude, s.longitude, s.managerID, s.dateEstablished AS Established
+FROM STORE s, USERS u
+WHERE u.userID = :customer
+AND s.latitude BETWEEN u.latitude - 30 AND u.latitude + 30
+AND s.longitude BETWEEN u.longitude - 30 AND u.longitude + 30
+AND calculate_distance(u.latitude, u.longitude, s.latitude, s.longitude) <= 30;
+
+\echo viewProducts
+SELECT productName AS Name, numberOfUnits AS Units, pricePerUnit AS Price FROM PRODUCT WHERE storeID = :store;
+
+\echo -
+BEGIN;
+\echo placeOrder
+WITH stock AS (
+ UPDATE PRODUCT p SET numberOfUnits = p.numberOfUnits - 1
+ WHERE p.storeID = :store AND p.productName = :'product' AND p.numberOfUnits >= 1
+ AND EXISTS (SELECT 1 FROM STORE s, USERS u WHERE s.storeID = p.storeID AND u.userID = :customer
+  AND s.latitude BETWEEN u.latitude - 30 AND u.latitude + 30
+  AND s.longitude BETWEEN u.longitude - 30 AND u.longitude + 30
+  AND calculate_distance(u.latitude, u.longitude, s.latitude, s.longitude) <= 30)
+ RETURNING p.numberOfUnits),
+placed AS (
+ INSERT INTO ORDERS (customerID, storeID, productName, unitsOrdered, orderTime)
+ SELECT :customer, :store, :'product', 1, CURRENT_TIMESTAMP FROM stock
+ RETURNING orderNumber)
+SELECT placed.orderNumber, stock.numberOfUnits FROM placed, stock;
+\echo -
+ROLLBACK;
+
+\echo viewRecentOrders
+SELECT o.storeID, s.name, o.productName, o.unitsOrdered, o.orderTime FROM ORDERS o, STORE s
+WHERE o.customerID = :customer AND o.storeID = s.storeID ORDER BY o.orderTime DESC LIMIT 5;
+
+\echo getManagedStores
+SELECT storeID FROM STORE WHERE managerID = :manager ORDER BY storeID;
+
+\echo -
+BEGIN;
+\echo updateProduct
+UPDATE PRODUCT SET numberOfUnits = 10, pricePerUnit = 2.5 WHERE storeID = :store AND productName = :'product';
+INSERT INTO PRODUCTUPDATES (managerID, storeID, productName, updatedOn) VALUES (:manager, :store, :'product', CURRENT_TIMESTAMP);
+\echo -
+ROLLBACK;
+
+\echo viewRecentUpdates
+SELECT * FROM PRODUCTUPDATES WHERE storeID IN (SELECT storeID FROM STORE WHERE managerID = :manager)
+ORDER BY updatedOn DESC LIMIT 5;
+
+\echo viewStoreOrderInfo
+SELECT o.orderNumber AS OrderNumber, u.name AS CustomerName, o.storeID AS StoreID, o.productName AS ProductName, o.orderTime AS Date
+FROM ORDERS o, USERS u WHERE o.storeID IN (SELECT storeID FROM STORE WHERE managerID = :manager) AND o.customerID = u.userID;
+
+\echo viewPopularProducts
+SELECT storeID, productName, numOrders AS NumOfOrders FROM PRODUCTPOPULARITY
+WHERE storeID IN (SELECT storeID FROM STORE WHERE managerID = :manager) ORDER BY numOrders DESC LIMIT 5;
+
+\echo viewPopularCustomers
+SELECT p.customerID, u.name, SUM(p.numOrders) AS NumOfOrders FROM CUSTOMERPOPULARITY p, USERS u
+WHERE p.storeID IN (SELECT storeID FROM STORE WHERE managerID = :manager) AND p.customerID = u.userID
+GROUP BY p.customerID, u.name ORDER BY SUM(p.numOrders) DESC LIMIT 5;
+
+\echo warehouseExists
+SELECT warehouseID FROM WAREHOUSE WHERE WarehouseID = :warehouse;
+
+\echo -
+BEGIN;
+\echo placeProductSupplyRequests
+INSERT INTO ProductSupplyRequests(managerID, warehouseID, storeID, productName, unitsRequested) VALUES (:manager, :warehouse, :store, :'product', 10);
+UPDATE PRODUCT SET numberOfUnits = numberOfUnits + 10 WHERE storeID = :store AND productName = :'product';
+\echo -
+ROLLBACK;